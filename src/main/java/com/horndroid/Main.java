@@ -26,9 +26,11 @@ package com.horndroid;
 
 import com.horndroid.analysis.Stubs;
 import com.horndroid.exceptions.ReportWritingException;
+import com.horndroid.executors.AnalysisServer;
 import com.horndroid.executors.HorndroidExecutor;
 import com.horndroid.model.Report;
 import com.horndroid.printers.ReportPrinter;
+import com.horndroid.printers.MetricsPrinter;
 import com.horndroid.printers.ReportWriterFactory;
 import org.apache.commons.cli.*;
 import org.apache.logging.log4j.LogManager;
@@ -37,6 +39,7 @@ import org.jf.util.ConsoleUtil;
 import org.jf.util.SmaliHelpFormatter;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 public class Main {
@@ -59,12 +62,36 @@ public class Main {
         options.addOption("r", true, "number of queries");
         options.addOption("d", true, "print debugging information (argument: integer 1 - taint information, 2 - localheap, or 3 - global heap");
         options.addOption("l", false, "stop after the first leak is found");
+        options.addOption("j", true, "number of threads solving the queries (default 1)");
+        options.addOption("c", true, "number of threads generating the Horn clauses (default 1)");
+        options.addOption("b", true, "number of apk files analysed concurrently (default 1)");
+        options.addOption("y", true, "do not start the analysis of another apk file while the heap uses more than this many megabytes (default 0, no limit)");
+        options.addOption("a", true, "run as an analysis server listening on this local port, jobs are submitted over HTTP");
+        options.addOption("z", true, "cache the reports in this directory and reuse them for identical apk files and options");
+        options.addOption("v", true, "maximum size of the report cache in megabytes (default 512)");
+        options.addOption("o", true, "time limit in seconds for each query (default 0, no limit)");
+        options.addOption("e", true, "re-run the queries that hit the time limit with this limit in seconds, after all other queries");
+        options.addOption("x", true, "solver memory limit in megabytes (default 0, no limit)");
         options.addOption("s", false, "sensitive heap only for the objects created in the method that contains a call to a sink");
         options.addOption("g", false, "skip unknown methods");
         options.addOption("f", true, "filter classes starting from the init activity with a specified width (argument : integer, starting from 1" +
                 "number of classes that should be included together with the init class to the analysis" +
                 ")");
         options.addOption("u", false, "class filtering should be done sound, e.g., if a skipped method body contains a call to a sink it becomes a sink");
+        options.addOption("G", false, "solve the queries in groups, split a group only if it may contain a leak");
+        options.addOption("P", true, "race each query under several fixedpoint configurations separated by ';', e.g. \"engine=pdr;engine=duality\"");
+        options.addOption("S", true, "solver profile: a file of key=value lines or \"key=value,...\", e.g. \"engine=duality,representation=none\"");
+        options.addOption("T", true, "auto-tune: solve the input apk files with each candidate profile (-P, or a built-in grid) and write the best profile to the given file");
+        options.addOption("L", true, "bounded memory: at most this many solver instances (fixedpoints) alive at once (default 0, no bound)");
+        options.addOption("N", true, "stream each report as newline delimited JSON to <dir>/<apk>.ndjson while the queries are solved");
+        options.addOption("M", true, "write the performance metrics of the analysed apk files to this file, as CSV if it ends with .csv, in the Prometheus text format otherwise");
+        options.addOption("k", false, "load the rules once and run all queries in a single solver session");
+        options.addOption("B", false, "large-block encoding: compose the straight-line instructions of each basic block into a single rule");
+        options.addOption("R", false, "program point relations carry only the registers live at that point");
+        options.addOption("H", false, "method relations carry only the local heap of the allocation points the method and its callees use");
+        options.addOption("A", false, "array encoding of the local heap: each component of the local heap is one array indexed by slot");
+        options.addOption("F", false, "no rule slicing: load every fixedpoint with all the rules instead of the rules each query depends on");
+        options.addOption("U", false, "no reachability pre-check: solve the queries whose relations no rule can derive instead of reporting them unsatisfiable");
     }
 
     public static void main(String[] args) throws ReportWritingException {
@@ -78,6 +105,19 @@ public class Main {
             LOGGER.info("Provided apktool.jar path is not correct, falling back to default");
             horndroidExecutor = new HorndroidExecutor(hornDroidOptions, INPUT_APK_PATH);
         }
+        if (hornDroidOptions.serverPort > 0) {
+            try {
+                new AnalysisServer(horndroidExecutor, hornDroidOptions).start(hornDroidOptions.serverPort);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Error: Can't start the analysis server", e);
+                System.exit(1);
+            }
+            return;
+        }
+        if (!hornDroidOptions.tuneProfile.isEmpty()) {
+            horndroidExecutor.tune(new File(hornDroidOptions.tuneProfile));
+            return;
+        }
         final List<Report> reports = horndroidExecutor.execute();
         display(reports);
 
@@ -110,6 +150,9 @@ public class Main {
             printReportToConsole(report);
             printReportToFile(report);
         }
+        if (!hornDroidOptions.metricsFile.isEmpty()) {
+            MetricsPrinter.writeMetricsToFile(reports, hornDroidOptions.metricsFile);
+        }
     }
 
     private static boolean apkToolPathCorrect() {
@@ -132,7 +175,9 @@ public class Main {
         getOptionsDirective(commandLine, clOptions);
 
         APK_TOOL_DIR_PATH = otherArgs[1];
-        INPUT_APK_PATH = otherArgs[2];
+        if (otherArgs.length > 2) {
+            INPUT_APK_PATH = otherArgs[2];
+        }
         if(otherArgs.length==4){
             OUTPUT_FILE_PATH = otherArgs[3];
         }
@@ -142,7 +187,8 @@ public class Main {
 
     private static String[] getProgramArguments(CommandLine commandLine) {
         String[] otherArgs = commandLine.getArgs();
-        if (otherArgs.length < 3) {
+        // the analysis server receives the apk files with the jobs
+        if (otherArgs.length < (commandLine.hasOption("a") ? 2 : 3)) {
             usage();
             System.exit(0);
         }
@@ -181,12 +227,39 @@ public class Main {
                 case 'o':
                     hornDroidOptions.timeout= Integer.parseInt(commandLine.getOptionValue("o"));
                     break;
+                case 'e':
+                    hornDroidOptions.retryTimeout= Integer.parseInt(commandLine.getOptionValue("e"));
+                    break;
+                case 'x':
+                    hornDroidOptions.memoryLimit= Integer.parseInt(commandLine.getOptionValue("x"));
+                    break;
                 case 'r':
                     hornDroidOptions.maxQueries= Integer.parseInt(commandLine.getOptionValue("r"));
                     break;
                 case 'l':
                     hornDroidOptions.tillFirstLeak = true;
                     break;
+                case 'j':
+                    hornDroidOptions.solverThreads = Integer.parseInt(commandLine.getOptionValue("j"));
+                    break;
+                case 'c':
+                    hornDroidOptions.generationThreads = Integer.parseInt(commandLine.getOptionValue("c"));
+                    break;
+                case 'z':
+                    hornDroidOptions.cacheDirectory = commandLine.getOptionValue("z");
+                    break;
+                case 'v':
+                    hornDroidOptions.cacheSize = Integer.parseInt(commandLine.getOptionValue("v"));
+                    break;
+                case 'a':
+                    hornDroidOptions.serverPort = Integer.parseInt(commandLine.getOptionValue("a"));
+                    break;
+                case 'b':
+                    hornDroidOptions.batchSize = Integer.parseInt(commandLine.getOptionValue("b"));
+                    break;
+                case 'y':
+                    hornDroidOptions.batchMemory = Integer.parseInt(commandLine.getOptionValue("y"));
+                    break;
                 case 'm':
                     hornDroidOptions.oldUnknown = true;
                     break;
@@ -204,6 +277,49 @@ public class Main {
                     break;
                 case 'u':
                     hornDroidOptions.filterClassesSound = true;
+                    break;
+                case 'k':
+                    hornDroidOptions.querySession = true;
+                    break;
+                case 'G':
+                    hornDroidOptions.groupQueries = true;
+                    break;
+                case 'P':
+                    hornDroidOptions.portfolio = commandLine.getOptionValue("P");
+                    break;
+                case 'S':
+                    hornDroidOptions.solverProfile = commandLine.getOptionValue("S");
+                    break;
+                case 'T':
+                    hornDroidOptions.tuneProfile = commandLine.getOptionValue("T");
+                    break;
+                case 'N':
+                    hornDroidOptions.streamDirectory = commandLine.getOptionValue("N");
+                    break;
+                case 'M':
+                    hornDroidOptions.metricsFile = commandLine.getOptionValue("M");
+                    break;
+                case 'L':
+                    hornDroidOptions.maxLiveFixedpoints = Integer.parseInt(commandLine.getOptionValue("L"));
+                    break;
+                case 'B':
+                    hornDroidOptions.largeBlocks = true;
+                    break;
+                case 'R':
+                    hornDroidOptions.liveRegisters = true;
+                    break;
+                case 'H':
+                    hornDroidOptions.heapSlicing = true;
+                    break;
+                case 'A':
+                    hornDroidOptions.heapArrays = true;
+                    break;
+                case 'F':
+                    hornDroidOptions.ruleSlicing = false;
+                    break;
+                case 'U':
+                    hornDroidOptions.reachabilityPrecheck = false;
+                    break;
             }
 
         }
@@ -231,7 +347,33 @@ public class Main {
         System.out.println("-r number of queries");
         System.out.println("-d print debugging information (argument: integer 1 - taint information, 2 - localheap, or 3 - global heap");
         System.out.println("-l stop after the first leak is found");
+        System.out.println("-j number of threads solving the queries (default 1)");
+        System.out.println("-c number of threads generating the Horn clauses (default 1)");
+        System.out.println("-b number of apk files analysed concurrently (default 1)");
+        System.out.println("-y do not start the analysis of another apk file while the heap uses more than this many megabytes (default 0, no limit)");
+        System.out.println("-a run as an analysis server listening on this local port, jobs are submitted over HTTP");
+        System.out.println("   the apk files given after the apktool path, if any, are analysed once at start-up to warm up");
+        System.out.println("-z cache the reports in this directory and reuse them for identical apk files and options");
+        System.out.println("-v maximum size of the report cache in megabytes (default 512)");
+        System.out.println("-o time limit in seconds for each query (default 0, no limit)");
+        System.out.println("-e re-run the queries that hit the time limit with this limit in seconds, after all other queries");
+        System.out.println("-x solver memory limit in megabytes (default 0, no limit)");
         System.out.println("-s sensitive heap only for the objects created in the method that contains a call to a sink.");
+        System.out.println("-G solve the queries in groups, split a group only if it may contain a leak");
+        System.out.println("-S solver profile: a file of key=value lines or \"key=value,...\", e.g. \"engine=duality,representation=none\"");
+        System.out.println("   the profile key passes=dedupe+slice+inline+fold optimizes the clauses before solving, compare passes with -T and -P \"passes=none;passes=inline\"");
+        System.out.println("-T auto-tune: solve the input apk files with each candidate profile (-P, or a built-in grid) and write the best profile to the given file");
+        System.out.println("-L bounded memory: at most this many solver instances (fixedpoints) alive at once (default 0, no bound)");
+        System.out.println("-N stream each report as newline delimited JSON to <dir>/<apk>.ndjson while the queries are solved");
+        System.out.println("-M write the performance metrics of the analysed apk files to this file, as CSV if it ends with .csv, in the Prometheus text format otherwise");
+        System.out.println("-P race each query under several fixedpoint configurations separated by ';', e.g. \"engine=pdr;engine=duality\"");
+        System.out.println("-k load the rules once and run all queries in a single solver session");
+        System.out.println("-B large-block encoding: compose the straight-line instructions of each basic block into a single rule");
+        System.out.println("-R program point relations carry only the registers live at that point (ignored with -d and -i)");
+        System.out.println("-H method relations carry only the local heap of the allocation points the method and its callees use (ignored with -i and -A)");
+        System.out.println("-A array encoding of the local heap: each component of the local heap is one array indexed by slot");
+        System.out.println("-F no rule slicing: load every fixedpoint with all the rules instead of the rules each query depends on");
+        System.out.println("-U no reachability pre-check: solve the queries whose relations no rule can derive instead of reporting them unsatisfiable");
     }
 
     private static void printReportToFile(Report report) throws ReportWritingException {
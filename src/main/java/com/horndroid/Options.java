@@ -25,7 +25,7 @@
 
 package com.horndroid;
 
-public class Options {
+public class Options implements Cloneable {
     public boolean arrays = false;
     public boolean debug = false;
     public boolean verboseResults = false;
@@ -35,7 +35,9 @@ public class Options {
     public int maxQueries = 0;
     public int debugInt = 3;
     public boolean stubs = false;
-    public int timeout = 30;
+    public int timeout = 0;
+    public int retryTimeout = 0;
+    public int memoryLimit = 0;
     public boolean tillFirstLeak = false;
     public boolean sensIfHasSink = false;
     public boolean oldUnknown = false;
@@ -44,4 +46,36 @@ public class Options {
     public boolean nopUnknown = false;
     public int filterClasses = 0;
     public boolean filterClassesSound = false;
+    public boolean querySession = false;
+    public int solverThreads = 1;
+    public int generationThreads = 1;
+    public int batchSize = 1;
+    public int batchMemory = 0;
+    public int serverPort = 0;
+    public String cacheDirectory = "";
+    public int cacheSize = 512;
+    public boolean ruleSlicing = true;
+    public boolean reachabilityPrecheck = true;
+    public boolean groupQueries = false;
+    public String portfolio = "";
+    public String solverProfile = "";
+    public String tuneProfile = "";
+    public int maxLiveFixedpoints = 0;
+    public String streamDirectory = "";
+    public String metricsFile = "";
+    public boolean largeBlocks = false;
+    public boolean liveRegisters = false;
+    public boolean heapSlicing = false;
+    public boolean heapArrays = false;
+
+    /*
+     * Copy of the options for the analysis of one apk file, the output directory is set per apk
+     */
+    public Options copy() {
+        try {
+            return (Options) this.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Options Failed: copy");
+        }
+    }
 }
\ No newline at end of file
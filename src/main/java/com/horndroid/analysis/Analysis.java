@@ -28,11 +28,13 @@ import com.horndroid.Dalvik.*;
 import com.horndroid.Options;
 import com.horndroid.payload.ArrayData;
 import com.horndroid.payload.PackedSwitch;
+import com.horndroid.payload.PayloadIndex;
 import com.horndroid.payload.SparseSwitch;
 import com.horndroid.strings.ConstString;
 import com.horndroid.util.*;
 import com.horndroid.z3.FSEngine;
 import com.horndroid.z3.FSVariable;
+import com.horndroid.z3.GeneratedClauses;
 import com.microsoft.z3.BitVecExpr;
 import com.microsoft.z3.BoolExpr;
 import org.apache.logging.log4j.LogManager;
@@ -50,12 +52,16 @@ import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 public class Analysis {
     private static final Logger LOGGER = LogManager.getLogger(Analysis.class);
     final ExecutorService instructionExecutorService;
+    private Dispatch dispatch;
     final private Map<Integer, GeneralClass> apkClasses;
     final private Map<Integer, GeneralClass> classes;
     final private Instances apkInstances;
@@ -67,14 +73,14 @@ public class Analysis {
     final private Set<ConstString> constStrings;
     final private Set<Integer> callbackImplementations;
     final private Set<String> callbacks;
-    final private Set<ArrayData> arrayDataPayload;
-    final private Set<PackedSwitch> packedSwitchPayload;
-    final private Set<SparseSwitch> sparseSwitchPayload;
+    final private PayloadIndex payloads;
     final private Set<Integer> overapprox;
     final private SourcesSinks sourcesSinks;
     final private Options options;
     final private FSEngine fsengine;
     final private FSVariable fsvar;
+    // engine of the current generation thread, its clauses are translated into fsengine after each class
+    final private ThreadLocal<FSEngine> workerEngine = new ThreadLocal<FSEngine>();
     final private Stubs stubs;
     @Nonnull
     private final Set<CMPair> methodIsEntryPoint;
@@ -90,12 +96,22 @@ public class Analysis {
     private Map<Integer, String> allocationPointClassDebug = new HashMap<Integer, String>();
     private Map<Integer, String> allocationPointMethod = new HashMap<Integer, String>();
     private Map<Integer, Integer> allocationPointPC = new HashMap<Integer, Integer>();
+    private FieldLayout fieldLayout = new FieldLayout();
+    // fields of the classes of the objects that are not allocation points of the local heap, an empty map
+    // for a class without fields
+    private final Map<String, Map<Integer, Boolean>> otherClassFields =
+            new ConcurrentHashMap<String, Map<Integer, Boolean>>();
 
     private Interfaces interfaces = new Interfaces();
 
     private Integer localHeapNumberEntries;
     private Integer localHeapSize;
-    private HashSet<StringPair> apkClassesMethods;
+    private Set<StringPair> apkClassesMethods;
+
+    // milliseconds spent in each phase of the analysis, in phase order
+    private final Map<String, Long> phaseMilliseconds = new LinkedHashMap<>();
+    // large-block encoding: names of the R_ relations inside a basic block, filled concurrently by processClass
+    private final Set<String> blockInteriorRelations = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private Set<Integer> methodHasSink;
 
@@ -107,17 +123,15 @@ public class Analysis {
 
         this.apkInstances = new Instances();
         this.instances = new Instances();
-        this.disabledActivities = new HashSet<Integer>();
-        this.activities = new HashSet<Integer>();
-        this.applications = new HashSet<Integer>();
-        this.launcherActivities = new HashSet<Integer>();
-        this.constStrings = new HashSet<ConstString>();
-        this.callbackImplementations = new HashSet<Integer>();
-        this.callbacks = new HashSet<String>();
-        this.arrayDataPayload = new HashSet<ArrayData>();
-        this.packedSwitchPayload = new HashSet<PackedSwitch>();
-        this.sparseSwitchPayload = new HashSet<SparseSwitch>();
-        this.overapprox = new HashSet<Integer>();
+        this.disabledActivities = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.activities = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.applications = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.launcherActivities = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.constStrings = Collections.newSetFromMap(new ConcurrentHashMap<ConstString, Boolean>());
+        this.callbackImplementations = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.callbacks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.payloads = new PayloadIndex();
+        this.overapprox = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
         this.instructionExecutorService = instructionExecutorService;
         this.sourcesSinks = sourcesSinks;
         this.fsengine = fsengine;
@@ -126,12 +140,12 @@ public class Analysis {
 
         this.stubs = stubs;
 
-        this.methodHasSink = new HashSet<Integer>();
+        this.methodHasSink = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
 
 
-        this.refSources = new HashSet<CMPair>();
-        this.refSinks = new HashSet<CMPair>();
-        this.apkClassesMethods = new HashSet<StringPair>();
+        this.refSources = Collections.newSetFromMap(new ConcurrentHashMap<CMPair, Boolean>());
+        this.refSinks = Collections.newSetFromMap(new ConcurrentHashMap<CMPair, Boolean>());
+        this.apkClassesMethods = Collections.newSetFromMap(new ConcurrentHashMap<StringPair, Boolean>());
 
         this.overapprox.add("Landroid/content/ContentProvider;".hashCode());
         this.overapprox.add("Landroid/app/Service;".hashCode());
@@ -143,8 +157,8 @@ public class Analysis {
         this.overapprox.add("Landroid/support/v4/app/ListFragment;".hashCode());
         this.overapprox.add("Landroid/os/Handler;".hashCode());
 
-        this.methodIsEntryPoint = new HashSet<CMPair>();
-        this.staticConstructor = new HashSet<Integer>();
+        this.methodIsEntryPoint = Collections.newSetFromMap(new ConcurrentHashMap<CMPair, Boolean>());
+        this.staticConstructor = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
     }
 
     public boolean checkMethodHasSink(int cmHash) {
@@ -215,19 +229,26 @@ public class Analysis {
         return options.nfsanalysis;
     }
 
-    public Set<ArrayData> getArrayData() {
-        return arrayDataPayload;
+    /*
+     * Return the array data found at payloadAddress in method m of class c, null if there is none
+     */
+    public ArrayData getArrayData(final int c, final int m, final int payloadAddress) {
+        return payloads.getArrayData(c, m, payloadAddress);
     }
 
-    public Set<PackedSwitch> getPackedSwitch() {
-        return packedSwitchPayload;
+    public PackedSwitch getPackedSwitch(final int c, final int m, final int payloadAddress) {
+        return payloads.getPackedSwitch(c, m, payloadAddress);
     }
 
-    public Set<SparseSwitch> getSparseSwitch() {
-        return sparseSwitchPayload;
+    public SparseSwitch getSparseSwitch(final int c, final int m, final int payloadAddress) {
+        return payloads.getSparseSwitch(c, m, payloadAddress);
     }
 
     public FSEngine getFSEngine() {
+        final FSEngine worker = workerEngine.get();
+        if (worker != null) {
+            return worker;
+        }
         if (!fsengine.isInitialized()) {
             throw new RuntimeException("Analysis.getFSEngine:FSEngine not initialized");
         }
@@ -245,7 +266,7 @@ public class Analysis {
     public void collectDataFromApk(List<? extends ClassDef> classDefs,
                                    final Set<Integer> allowed) {
         allowed.addAll(launcherActivities); // adding launcher activities to the allowed
-        DataExtraction de = new DataExtraction(apkClasses, apkInstances, arrayDataPayload, packedSwitchPayload, sparseSwitchPayload,
+        DataExtraction de = new DataExtraction(apkClasses, apkInstances, payloads,
                 staticConstructor, constStrings, launcherActivities, true, sourcesSinks, refSources, refSinks, methodHasSink, interfaces,
                 allowed, optionFilterClasses(), options.filterClassesSound);
         de.collectData(classDefs);
@@ -433,7 +454,7 @@ public class Analysis {
 					fsvar.getLHF(offset)
 					);
 
-            Map<Integer,Boolean> fields = getClassFields(getAllocationPointClass(instanceNum), instanceNum);
+            Map<Integer,Boolean> fields = getAllocationPointFields(instanceNum);
             int referenceIntIndex = getAllocationPointClass(instanceNum).hashCode();
             if (fields != null){
                 int loopi = fsengine.getOffset(instanceNum);
@@ -463,6 +484,7 @@ public class Analysis {
         Integer itNumber = 0;
         Integer offset = 0;
 
+        final Map<Integer, TreeMap<Integer, Boolean>> classFields = new HashMap<Integer, TreeMap<Integer, Boolean>>();
         Set<DalvikInstance> setOfInst = instances.getAllOnce();
         if (options.stubs) {
             setOfInst.addAll(stubs.getInstances().getAllOnce());
@@ -484,7 +506,8 @@ public class Analysis {
             final int instanceNum = i.hashCode();
 
             final String referenceString = i.getType().getType();
-            final Map<Integer, Boolean> fieldsMap = getClassFields(referenceString, instanceNum);
+            final TreeMap<Integer, Boolean> fieldsMap = getClassFields(referenceString, instanceNum);
+            classFields.put(instanceNum, fieldsMap);
             TreeSet<Integer> fields = null;
             if (fieldsMap != null) {
                 fields = new TreeSet<Integer>(fieldsMap.keySet());
@@ -504,6 +527,7 @@ public class Analysis {
         }
         localHeapSize = offset;
         localHeapNumberEntries = itNumber;
+        fieldLayout = new FieldLayout(allocationPointOffset.keySet(), classFields);
     }
 
     public int getInstanceNumFromReverse(int i) {
@@ -511,15 +535,44 @@ public class Analysis {
     }
 
     public int getFieldOffset(int allocationPoint, int fieldIntReference) {
-        TreeSet<Integer> fields = new TreeSet<Integer>(this.getClassFields(allocationPointClass.get(allocationPoint), allocationPoint).keySet());
-        int i = 0;
-        for (int field : fields) {
-            if (field == fieldIntReference) {
-                return i;
-            }
-            i++;
+        final Integer offset = fieldLayout.getOffset(allocationPoint, fieldIntReference);
+        if (offset == null) {
+            throw new RuntimeException("Analysis: getOffset: field does not exist");
+        }
+        return offset;
+    }
+
+    /*
+     * Return the fields of the object allocated at allocationPoint, in local heap order, null if it has no fields
+     */
+    public Map<Integer, Boolean> getAllocationPointFields(int allocationPoint) {
+        return fieldLayout.getFields(allocationPoint);
+    }
+
+    /*
+     * Return the allocation points whose objects have the field fieldIntReference
+     */
+    public List<Integer> getAllocationPointsWithField(int fieldIntReference) {
+        return fieldLayout.getAllocationPoints(fieldIntReference);
+    }
+
+    /*
+     * Return the fields of the object of class className created at instanceNum, null if it has no fields: the
+     * precomputed layout for an allocation point of the local heap, the fields of the class, computed once
+     * per class, otherwise
+     */
+    public Map<Integer, Boolean> getInstanceFields(final String className, final int instanceNum) {
+        if (allocationPointOffset.containsKey(instanceNum)) {
+            return fieldLayout.getFields(instanceNum);
         }
-        throw new RuntimeException("Analysis: getOffset: field does not exist");
+        Map<Integer, Boolean> fields = otherClassFields.get(className);
+        if (fields == null) {
+            final TreeMap<Integer, Boolean> classFields = getClassFields(className, instanceNum);
+            fields = classFields != null ? Collections.unmodifiableMap(classFields)
+                    : Collections.<Integer, Boolean>emptyMap();
+            otherClassFields.put(className, fields);
+        }
+        return fields.isEmpty() ? null : fields;
     }
 
     public String getAllocationPointClass(int instanceNum) {
@@ -595,6 +648,7 @@ public class Analysis {
 
 
     private void addToMain(final DalvikClass dc, final int methodIndex, final int numRegCall, final int regCount) {
+        final FSEngine fsengine = getFSEngine();
         final int classIndex = dc.getType().hashCode();
         Map<Integer, BitVecExpr> regUpV = new HashMap<>();
         Map<Integer, BoolExpr> regUpH = new HashMap<>();
@@ -645,6 +699,8 @@ public class Analysis {
     private void addToMainHeap(final DalvikClass dc, final int methodIndex, final int numRegCall, final int regCount) {
         this.addToMain(dc, methodIndex, numRegCall, regCount);
 
+        final FSEngine fsengine = getFSEngine();
+        final FSVariable fsvar = fsengine.getVars();
         final int classIndex = dc.getType().hashCode();
 
         BoolExpr b2 = fsengine
@@ -669,6 +725,8 @@ public class Analysis {
 
     public void processClass(final DalvikClass dc, final boolean isDisabledActivity, final boolean isCallbackImplementation,
                              final boolean isLauncherActivity, final boolean isApplication, final boolean isOverApprox) {
+        final FSEngine fsengine = getFSEngine();
+        final FSVariable fsvar = fsengine.getVars();
         for (final DalvikMethod m : dc.getMethods()) {
             if (!apkClassesMethods.contains(new StringPair(dc.getType(), m.getName()))) {
                 continue;
@@ -760,6 +818,14 @@ public class Analysis {
                 ia.CreateHornClauses(options, apkClassesMethods);
                 codeAddress += instruction.getCodeUnits();
             }
+
+            if (options.largeBlocks) {
+                final int c = dc.getType().hashCode();
+                final int mi = m.getName().hashCode();
+                for (final int pc : BasicBlocks.interiorPoints(this, c, mi, m)) {
+                    blockInteriorRelations.add(FSEngine.rPredName(Utils.Dec(c), Utils.Dec(mi), pc));
+                }
+            }
         }
     }
 
@@ -928,8 +994,14 @@ public class Analysis {
         }
     }
 
-    public Dispatch makeDispatch() {
-        return new Dispatch(instances, classes, interfaces);
+    /*
+     * Return the dispatch shared by all instructions, its cache lives for the whole clause generation
+     */
+    public Dispatch getDispatch() {
+        if (dispatch == null) {
+            dispatch = new Dispatch(instances, classes, interfaces);
+        }
+        return dispatch;
     }
 
     private void fetchNewInstance(final int cp, final String className, final int c, final int m, final int pc) {
@@ -1114,11 +1186,7 @@ public class Analysis {
             }
         }*/
 
-        for (ArrayData aData : stubs.getArrayDataPayload()) {
-            if (processCM.contains(new CMPair(aData.getC(), aData.getM()))) {
-                arrayDataPayload.add(aData);
-            }
-        }
+        payloads.addAll(stubs.getPayloads(), processCM);
 
         for (ConstString cString : stubs.getConstStrings()) {
             if (processCM.contains(new CMPair(cString.getC(), cString.getM()))) {
@@ -1126,17 +1194,6 @@ public class Analysis {
             }
         }
 
-        for (PackedSwitch pSwitch : stubs.getPackedSwitchPayload()) {
-            if (processCM.contains(new CMPair(pSwitch.getC(), pSwitch.getM()))) {
-                packedSwitchPayload.add(pSwitch);
-            }
-        }
-
-        for (SparseSwitch sSwitch : stubs.getSparseSwitchPayload()) {
-            if (processCM.contains(new CMPair(sSwitch.getC(), sSwitch.getM()))) {
-                sparseSwitchPayload.add(sSwitch);
-            }
-        }
         staticConstructor.addAll(stubs.getStaticConstructor());
         //instances.addSuperInstances();
     }
@@ -1180,7 +1237,9 @@ public class Analysis {
         LOGGER.info("Number of instances in APK: " + instances.size());
 
         // Get the unknown classes from Java standard and Android libraries
+        final long fetchStartTime = System.nanoTime();
         Set<CMPair> processCM = fetchUnknownMethod();
+        recordPhase("fetch_unknown_methods", System.nanoTime() - fetchStartTime);
 
         //Counting the number of instructions and initializing apkClassMethods
         int instructionNumber = 0;
@@ -1195,6 +1254,24 @@ public class Analysis {
             }
         }
 
+        // Project the program point relations on the live registers, debugging queries ask about every register
+        if (options.liveRegisters && !options.nfsanalysis && !options.debug) {
+            final long livenessStartTime = System.nanoTime();
+            for (CMPair cmp : processCM) {
+                GeneralClass c = classes.get(cmp.getC());
+                if ((c instanceof DalvikClass)) {
+                    DalvikMethod m = ((DalvikClass) c).getMethod(cmp.getM());
+                    if (m != null) {
+                        final int ci = c.getType().hashCode();
+                        final int mi = m.getName().hashCode();
+                        fsengine.setLiveRegisters(Utils.Dec(ci), Utils.Dec(mi),
+                                RegisterLiveness.liveRegisters(this, ci, mi, m));
+                    }
+                }
+            }
+            recordPhase("register_liveness", System.nanoTime() - livenessStartTime);
+        }
+
         // Initialize allocationPointOffset,allocationPointNumbers and allocationPointSize
         if (!options.nfsanalysis) {
             initializeAllocationMapping();
@@ -1223,30 +1300,112 @@ public class Analysis {
         LOGGER.info("Number of instances : " + instances.size());
         //System.out.print("Number of processed instructions : " + numberOfHornCLauseInstructions);
 
+        // classes and instances are complete, the dispatch results can be shared from now on
+        dispatch = new Dispatch(instances, classes, interfaces);
+
+        // Restrict the local heap of each method to the allocation points it and its callees use
+        if (options.heapSlicing && !options.heapArrays && !options.nfsanalysis) {
+            final long slicingStartTime = System.nanoTime();
+            final List<DalvikClass> dalvikClasses = new ArrayList<DalvikClass>();
+            for (final GeneralClass c : classes.values()) {
+                if ((c instanceof DalvikClass)) {
+                    dalvikClasses.add((DalvikClass) c);
+                }
+            }
+            long slots = 0;
+            final Map<CMPair, BitSet> slices = HeapSlicing.heapSlices(this, dalvikClasses);
+            for (final Map.Entry<CMPair, BitSet> slice : slices.entrySet()) {
+                fsengine.setHeapSlice(Utils.Dec(slice.getKey().getC()), Utils.Dec(slice.getKey().getM()), slice.getValue());
+                slots += slice.getValue().cardinality();
+            }
+            recordPhase("heap_slicing", System.nanoTime() - slicingStartTime);
+            LOGGER.info("Local heap slices: " + (slices.isEmpty() ? 0 : slots / slices.size()) + " of "
+                    + localHeapSize + " slots per method on average");
+        }
+
+        final long startTime = System.nanoTime();
+        if (options.generationThreads > 1) {
+            processClassesParallel();
+        } else {
+            for (final GeneralClass c : classes.values()) {
+                if ((c instanceof DalvikClass)) {
+                    processClass((DalvikClass) c);
+                }
+            }
+        }
+        recordPhase("clause_generation", System.nanoTime() - startTime);
+        LOGGER.info("Horn clauses generated in " + ((System.nanoTime() - startTime) / 1000000) + " ms using "
+                + Math.max(1, options.generationThreads) + " thread(s)");
+        final long dispatches = dispatch.getHits() + dispatch.getMisses();
+        LOGGER.info("Dispatch cache hits: " + dispatch.getHits() + " of " + dispatches + " dispatches" +
+                (dispatches > 0 ? " (" + (100 * dispatch.getHits() / dispatches) + "%)" : ""));
+    }
+
+
+    private void processClass(final DalvikClass dc) {
+        if (fsengine.isCancelled()) {
+            throw new RuntimeException("Analysis Failed: cancelled");
+        }
+        final boolean isDisabledActivity = testDisabledActivity(dc);
+        final boolean isLauncherActivity = testLauncherActivity(dc);
+        final boolean isApplication = testApplication(dc);
+        final boolean isOverapprox = testOverapprox(dc);
+        boolean isCallbackImplementation = false;
+        final HashSet<Integer> ic = interfaces.getByClassType(dc.getType().hashCode());
+        if (ic != null) {
+            for (final Integer interfaceC : ic) {
+                if (callbackImplementations.contains(interfaceC)) {
+                    isCallbackImplementation = true;
+                }
+            }
+        }
+        processClass(dc, isDisabledActivity, isCallbackImplementation, isLauncherActivity, isApplication, isOverapprox);
+    }
 
+    /*
+     * Generate the clauses of every class on the instruction executor. Z3 contexts are not thread safe,
+     * hence each thread generates into its own worker engine; the clauses of a class are translated into
+     * the main engine context by the thread that generated them, and added to the main engine in class
+     * order so that rules and queries are the same as in a sequential run.
+     */
+    private void processClassesParallel() {
+        final List<FSEngine> workers = Collections.synchronizedList(new ArrayList<FSEngine>());
+        final List<Callable<GeneratedClauses>> tasks = new ArrayList<Callable<GeneratedClauses>>();
         for (final GeneralClass c : classes.values()) {
             if ((c instanceof DalvikClass)) {
                 final DalvikClass dc = (DalvikClass) c;
-                final boolean isDisabledActivity = testDisabledActivity(dc);
-                final boolean isLauncherActivity = testLauncherActivity(dc);
-                final boolean isApplication = testApplication(dc);
-                final boolean isOverapprox = testOverapprox(dc);
-                boolean isCallbackImplementation = false;
-                final HashSet<Integer> ic = interfaces.getByClassType(dc.getType().hashCode());
-                if (ic != null) {
-                    for (final Integer interfaceC : ic) {
-                        if (callbackImplementations.contains(interfaceC)) {
-                            isCallbackImplementation = true;
+                tasks.add(new Callable<GeneratedClauses>() {
+                    @Override
+                    public GeneratedClauses call() {
+                        FSEngine worker = workerEngine.get();
+                        if (worker == null) {
+                            worker = fsengine.mkWorkerEngine();
+                            workerEngine.set(worker);
+                            workers.add(worker);
                         }
+                        processClass(dc);
+                        return fsengine.translateFromWorker(worker);
                     }
-                }
-                final boolean isci = isCallbackImplementation;
-                processClass(dc, isDisabledActivity, isci, isLauncherActivity, isApplication, isOverapprox);
+                });
+            }
+        }
+        try {
+            for (final Future<GeneratedClauses> future : instructionExecutorService.invokeAll(tasks)) {
+                fsengine.addClauses(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Analysis Failed: clause generation interrupted");
+        } catch (ExecutionException e) {
+            LOGGER.error("Clause generation failed", e.getCause());
+            throw new RuntimeException("Analysis Failed: " + e.getCause().getMessage());
+        } finally {
+            for (final FSEngine worker : workers) {
+                worker.dispose();
             }
         }
     }
 
-
     private boolean testEntryPoint(final GeneralClass c, final int methodIndex) {
         if (this.isEntryPoint(c.getType().hashCode(), methodIndex)) {
             return true;
@@ -1285,7 +1444,27 @@ public class Analysis {
 
 
     public int getLocalHeapSize() {
-        return localHeapSize;
+        // not computed in the flow insensitive analysis
+        return localHeapSize != null ? localHeapSize : 0;
+    }
+
+    /*
+     * Add nanoseconds to the time spent in the phase
+     */
+    public void recordPhase(final String phase, final long nanoseconds) {
+        final Long previous = phaseMilliseconds.get(phase);
+        phaseMilliseconds.put(phase, (previous != null ? previous : 0) + nanoseconds / 1000000);
+    }
+
+    public Map<String, Long> getPhaseMilliseconds() {
+        return phaseMilliseconds;
+    }
+
+    /*
+     * Relations of the program points inside a basic block, empty unless the large-block encoding is on
+     */
+    public Set<String> getBlockInteriorRelations() {
+        return blockInteriorRelations;
     }
 
     public int getLocalHeapNumberEntries() {
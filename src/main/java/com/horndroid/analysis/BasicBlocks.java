@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.DalvikMethod;
+import com.horndroid.payload.PackedSwitch;
+import com.horndroid.payload.SparseSwitch;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.ReferenceType;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.OffsetInstruction;
+import org.jf.dexlib2.iface.instruction.formats.Instruction31t;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Basic blocks of a method for the large-block encoding. A block starts at the entry of the method, at a
+ * branch or switch target, at a move-exception, and after any instruction that is not straight-line code.
+ * Straight-line instructions move or compute registers only: no branch, invoke, field, array or object access.
+ * The program points inside a block are the ones whose relation can be composed away.
+ */
+class BasicBlocks {
+
+    private BasicBlocks() {
+    }
+
+    /*
+     * Code addresses of the straight-line instructions that follow another straight-line instruction of the
+     * same block, c and m being the class and method hash codes
+     */
+    static Set<Integer> interiorPoints(final Analysis analysis, final int c, final int m, final DalvikMethod dm) {
+        final List<Integer> addresses = new ArrayList<>();
+        final List<Boolean> straight = new ArrayList<>();
+        final Set<Integer> leaders = new HashSet<>();
+        leaders.add(0);
+        int codeAddress = 0;
+        for (final Instruction instruction : dm.getInstructions()) {
+            addresses.add(codeAddress);
+            straight.add(isStraightLine(instruction));
+            leaders.addAll(jumpTargets(analysis, c, m, instruction, codeAddress));
+            if (instruction.getOpcode() == Opcode.MOVE_EXCEPTION) {
+                leaders.add(codeAddress);
+            }
+            codeAddress += instruction.getCodeUnits();
+        }
+        final Set<Integer> interior = new HashSet<>();
+        for (int i = 1; i < addresses.size(); i++) {
+            if (straight.get(i - 1) && straight.get(i) && !leaders.contains(addresses.get(i))) {
+                interior.add(addresses.get(i));
+            }
+        }
+        return interior;
+    }
+
+    /*
+     * Code addresses the instruction at codeAddress may jump to, besides the next instruction
+     */
+    static List<Integer> jumpTargets(final Analysis analysis, final int c, final int m, final Instruction instruction,
+                                     final int codeAddress) {
+        final List<Integer> jumps = new ArrayList<>();
+        switch (instruction.getOpcode()) {
+            case PACKED_SWITCH: {
+                final int payloadAddress = codeAddress + ((Instruction31t) instruction).getCodeOffset();
+                final PackedSwitch ps = analysis.getPackedSwitch(c, m, payloadAddress);
+                final List<Number> targets = ps != null ? ps.getTargets(c, m, payloadAddress) : null;
+                if (targets != null) {
+                    for (final Number target : targets) {
+                        jumps.add(target.intValue());
+                    }
+                }
+                break;
+            }
+            case SPARSE_SWITCH: {
+                final int payloadAddress = codeAddress + ((Instruction31t) instruction).getCodeOffset();
+                final SparseSwitch ss = analysis.getSparseSwitch(c, m, payloadAddress);
+                final Map<Integer, Integer> targets = ss != null ? ss.getTargets(c, m, payloadAddress) : null;
+                if (targets != null) {
+                    jumps.addAll(targets.values());
+                }
+                break;
+            }
+            default:
+                if (instruction instanceof OffsetInstruction && !(instruction instanceof Instruction31t)) {
+                    jumps.add(codeAddress + ((OffsetInstruction) instruction).getCodeOffset());
+                }
+        }
+        return jumps;
+    }
+
+    private static boolean isStraightLine(final Instruction instruction) {
+        final Opcode opcode = instruction.getOpcode();
+        if (opcode.referenceType != ReferenceType.NONE || !opcode.canContinue() || opcode.setsResult()
+                || instruction instanceof OffsetInstruction) {
+            return false;
+        }
+        return !opcode.name.startsWith("aget") && !opcode.name.startsWith("aput")
+                && !opcode.name.equals("array-length") && !opcode.name.equals("move-exception");
+    }
+}
@@ -31,6 +31,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import com.horndroid.Dalvik.*;
 import com.horndroid.payload.ArrayData;
 import com.horndroid.payload.PackedSwitch;
+import com.horndroid.payload.PayloadIndex;
 import com.horndroid.payload.SparseSwitch;
 import com.horndroid.strings.ConstString;
 import com.horndroid.util.CMPair;
@@ -78,9 +79,7 @@ public class DataExtraction {
     private int filterClasses;
     private boolean filterSound;
     final private Instances instances;
-    final private Set<ArrayData> arrayDataPayload;
-    final private Set<PackedSwitch> packedSwitchPayload;
-    final private Set<SparseSwitch> sparseSwitchPayload;
+    final private PayloadIndex payloads;
     final private Set<Integer> staticConstructor;
     final private Set<ConstString> constStrings;
     final private SourcesSinks sourcesSinks;
@@ -96,8 +95,7 @@ public class DataExtraction {
     private final boolean fromApk;
 
 
-    public DataExtraction(Map<Integer,GeneralClass> classes, Instances instances, Set<ArrayData> arrayDataPayload, 
-             Set<PackedSwitch> packedSwitchPayload, Set<SparseSwitch> sparseSwitchPayload, 
+    public DataExtraction(Map<Integer,GeneralClass> classes, Instances instances, PayloadIndex payloads,
              Set<Integer> staticConstructor, Set<ConstString> constStrings, Set<Integer> launcherActivities, final boolean fromApk,
              final SourcesSinks sourcesSinks,
              final Set<CMPair> refSources, final Set<CMPair> refSinks,
@@ -105,9 +103,7 @@ public class DataExtraction {
              final Interfaces interfaces, final Set<Integer> allowed, final int filterClasses, final boolean filterSound){
         this.classes = classes;
         this.instances = instances;
-        this.arrayDataPayload = arrayDataPayload;
-        this.packedSwitchPayload = packedSwitchPayload;
-        this.sparseSwitchPayload = sparseSwitchPayload;
+        this.payloads = payloads;
         this.staticConstructor = staticConstructor;
         this.constStrings = constStrings;
         this.fromApk = fromApk;
@@ -418,7 +414,7 @@ public class DataExtraction {
                         }
                         targets.add(basePCodeAddress + switchElement.getOffset());
                     }
-                    packedSwitchPayload.add(new PackedSwitch(c, m, payloadAddress, targets, firstKey));
+                    payloads.add(new PackedSwitch(c, m, payloadAddress, targets, firstKey));
                     break;
                 case SPARSE_SWITCH:
                     payloadOpcode = Opcode.SPARSE_SWITCH_PAYLOAD;
@@ -429,14 +425,14 @@ public class DataExtraction {
                     for (SwitchElement switchElement: ssInst.getSwitchElements()) {
                         sTargets.put(switchElement.getKey(), baseSCodeAddress + switchElement.getOffset());
                     }
-                    sparseSwitchPayload.add(new SparseSwitch(c, m, payloadAddress, sTargets));
+                    payloads.add(new SparseSwitch(c, m, payloadAddress, sTargets));
                     break;
                 case FILL_ARRAY_DATA:
                     payloadOpcode = Opcode.ARRAY_PAYLOAD;
                     ArrayPayload apInst = (ArrayPayload) methodDef.findSwitchPayload(codeAddress + ((Instruction31t)instruction).getCodeOffset(),
                             payloadOpcode);
                     List<Number> elements = apInst.getArrayElements();
-                    arrayDataPayload.add(new ArrayData(c, m, payloadAddress, elements));
+                    payloads.add(new ArrayData(c, m, payloadAddress, elements));
                     break;
                 default:
                     throw new ExceptionWithContext("Invalid 31t opcode: %s", instruction.getOpcode());
@@ -28,6 +28,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.horndroid.util.CMPair;
 import com.horndroid.util.LazyUnion;
@@ -40,49 +41,69 @@ import com.horndroid.Dalvik.GeneralClass;
 import com.horndroid.Dalvik.Instances;
 import com.horndroid.Dalvik.Interfaces;
 
+/*
+ * Dispatch results are memoized, keyed by call type, class and method. A single Dispatch is shared by
+ * all the instructions of an analysis, the cached sets must therefore never be modified once stored.
+ */
 public class Dispatch {
     final private Instances instances;
     final private Interfaces interfaces;
     final private Map<Integer,GeneralClass> classes;
-    final private Map<Integer,HashSet<DalvikInstance>> dispatchedInstances;
-    final private Map<Integer,HashSet<DalvikImplementation>> dispatchedImplementations;
-    final private Map<Integer,StringPair> failedDispatch;
+    final private Map<String,HashSet<DalvikInstance>> dispatchedInstances;
+    final private Map<String,HashSet<DalvikImplementation>> dispatchedImplementations;
+    final private Map<String,StringPair> failedDispatch;
+    final private AtomicLong hits = new AtomicLong();
+    final private AtomicLong misses = new AtomicLong();
     
     public Dispatch(final Instances instances, final Map<Integer,GeneralClass> classes, final Interfaces interfaces){
         this.instances = instances;
         this.classes = classes;
-        this.dispatchedImplementations = new ConcurrentHashMap<Integer,HashSet<DalvikImplementation>>();
-        this.dispatchedInstances = new ConcurrentHashMap<Integer,HashSet<DalvikInstance>>();
-        this.failedDispatch = new ConcurrentHashMap<Integer,StringPair>();
+        this.dispatchedImplementations = new ConcurrentHashMap<String,HashSet<DalvikImplementation>>();
+        this.dispatchedInstances = new ConcurrentHashMap<String,HashSet<DalvikInstance>>();
+        this.failedDispatch = new ConcurrentHashMap<String,StringPair>();
         this.interfaces = interfaces;
     }
     
-    private int makeNumber(final int c, final int m){
-        return (Integer.toString(c) + Integer.toString(m)).hashCode();
+    private String makeKey(final CallType callType, final int c, final int m){
+        return callType.name() + '_' + c + '_' + m;
+    }
+    
+    private HashSet<DalvikImplementation> getImplementations(final CallType callType, final int c, final int m){
+        return dispatchedImplementations.get(makeKey(callType,c,m));
+    }
+    
+    private HashSet<DalvikInstance> getInstances(final CallType callType, final int c, final int m){
+        return dispatchedInstances.get(makeKey(callType,c,m));
     }
     
-    private HashSet<DalvikImplementation> getImplementations(final int c, final int m){
-        return dispatchedImplementations.get(makeNumber(c,m));
+    private void putImplementations(final CallType callType, final int c, final int m, final HashSet<DalvikImplementation> diSet){
+        dispatchedImplementations.put(makeKey(callType,c,m), diSet);
     }
     
-    private HashSet<DalvikInstance> getInstances(final int c, final int m){
-        return dispatchedInstances.get(makeNumber(c,m));
+    private void putInstances(final CallType callType, final int c, final int m, final HashSet<DalvikInstance> diSet){
+        dispatchedInstances.put(makeKey(callType,c,m), diSet);
     }
     
-    private void putImplementations(final int c, final int m, final HashSet<DalvikImplementation> diSet){
-        dispatchedImplementations.put(makeNumber(c,m), diSet);
+    private StringPair getFailed(final CallType callType, final int c, final int m){
+        return failedDispatch.get(makeKey(callType,c,m));
     }
     
-    private void putInstances(final int c, final int m, final HashSet<DalvikInstance> diSet){
-        dispatchedInstances.put(makeNumber(c,m), diSet);
+    private void putFailed(final CallType callType, final int c, final int m, final String className, final String methodName){
+        failedDispatch.put(makeKey(callType,c,m),new StringPair(className, methodName));
     }
     
-    private StringPair getFailed(final int c, final int m){
-        return failedDispatch.get(makeNumber(c,m));
+    /*
+     * Number of dispatches answered from the cache
+     */
+    public long getHits(){
+        return hits.get();
     }
     
-    private void putFailed(final int c, final int m, final String className, final String methodName){
-        failedDispatch.put(makeNumber(c,m),new StringPair(className, methodName));
+    /*
+     * Number of dispatches that had to be computed
+     */
+    public long getMisses(){
+        return misses.get();
     }
     
     private Set<CMPair> threadInvokes(int ci, int mi){
@@ -203,7 +224,7 @@ public class Dispatch {
                     }
                     else{
                         if (dr2 != null){
-                            dr = dr2;
+                            dr = dr2.copy();
                         }                    }
                     break;
                 case STATIC:
@@ -213,7 +234,7 @@ public class Dispatch {
                     }
                     else{
                         if (dr2 != null){
-                            dr = dr2;
+                            dr = dr2.copy();
                         }                    }
                     break;
                 case DIRECT:
@@ -223,7 +244,7 @@ public class Dispatch {
                     }
                     else{
                         if (dr2 != null){
-                            dr = dr2;
+                            dr = dr2.copy();
                         }                    }
                     break;
                 case INTERFACE:
@@ -233,7 +254,7 @@ public class Dispatch {
                     }
                     else{
                         if (dr2 != null){
-                            dr = dr2;
+                            dr = dr2.copy();
                         }                    }
                     break;
                 case VIRTUAL:
@@ -243,7 +264,7 @@ public class Dispatch {
                     }
                     else{
                         if (dr2 != null){
-                            dr = dr2;
+                            dr = dr2.copy();
                         }
                     }
                     break;
@@ -301,13 +322,16 @@ public class Dispatch {
     
     private DispatchResult staticDispatch(final int c, final int m,
             final String className, final String methodName) {
-        final StringPair checkFailed = getFailed(c, m);
+        final StringPair checkFailed = getFailed(CallType.STATIC, c, m);
         if (checkFailed != null) {
+            hits.incrementAndGet();
             return null;
         } else {
-            if ((getImplementations(c, m) != null)) {
-                return new DispatchResult(null, getImplementations(c, m));
+            if ((getImplementations(CallType.STATIC, c, m) != null)) {
+                hits.incrementAndGet();
+                return new DispatchResult(null, getImplementations(CallType.STATIC, c, m));
             } else {
+                misses.incrementAndGet();
                 final HashSet<DalvikImplementation> implSet = new HashSet<DalvikImplementation>();
                 final GeneralClass gc = classes.get(c);
                 if (gc instanceof DalvikClass) {
@@ -317,16 +341,16 @@ public class Dispatch {
                                 .getMethod(m)));
                     }
                     if (implSet.isEmpty()) {
-                        putFailed(c,m,className,methodName);
+                        putFailed(CallType.STATIC, c,m,className,methodName);
                         return null;
                     }
                     else{
-                        putImplementations(c,m,implSet);
+                        putImplementations(CallType.STATIC, c,m,implSet);
                         return new DispatchResult(null, implSet);
                     }
                 }
                 else{
-                    putFailed(c,m,className,methodName);
+                    putFailed(CallType.STATIC, c,m,className,methodName);
                     return null;
                 }
                 
@@ -336,13 +360,16 @@ public class Dispatch {
     
     private DispatchResult directDispatch(final int c, final int m,
             final String className, final String methodName) {
-        final StringPair checkFailed = getFailed(c, m);
+        final StringPair checkFailed = getFailed(CallType.DIRECT, c, m);
         if (checkFailed != null) {
+            hits.incrementAndGet();
             return null;
         } else {
-            if ((getImplementations(c, m) != null)) {
-                return new DispatchResult(null, getImplementations(c, m));
+            if ((getImplementations(CallType.DIRECT, c, m) != null)) {
+                hits.incrementAndGet();
+                return new DispatchResult(null, getImplementations(CallType.DIRECT, c, m));
             } else {
+                misses.incrementAndGet();
                 final HashSet<DalvikImplementation> implSet = new HashSet<DalvikImplementation>();
                 final GeneralClass gc = classes.get(c);
                 if (gc instanceof DalvikClass) {
@@ -352,16 +379,16 @@ public class Dispatch {
                                 .getMethod(m)));
                     }
                     if (implSet.isEmpty()) {
-                        putFailed(c,m,className,methodName);
+                        putFailed(CallType.DIRECT, c,m,className,methodName);
                         return null;
                     }
                     else{
-                        putImplementations(c,m,implSet);
+                        putImplementations(CallType.DIRECT, c,m,implSet);
                         return new DispatchResult(null, implSet);
                     }
                 }
                 else{
-                    putFailed(c,m,className,methodName);
+                    putFailed(CallType.DIRECT, c,m,className,methodName);
                     return null;
                 }
                 
@@ -371,14 +398,17 @@ public class Dispatch {
     
     private DispatchResult superDispatch(final int c, final int m,
             final String className, final String methodName) {
-        final StringPair checkFailed = getFailed(c, m);
+        final StringPair checkFailed = getFailed(CallType.SUPER, c, m);
         if (checkFailed != null) {
+            hits.incrementAndGet();
             return null;
         } else {
-            if ((getImplementations(c, m) != null)
-                    && (getInstances(c, m) != null)) {
-                return new DispatchResult(getInstances(c, m), getImplementations(c, m));
+            if ((getImplementations(CallType.SUPER, c, m) != null)
+                    && (getInstances(CallType.SUPER, c, m) != null)) {
+                hits.incrementAndGet();
+                return new DispatchResult(getInstances(CallType.SUPER, c, m), getImplementations(CallType.SUPER, c, m));
             } else {
+                misses.incrementAndGet();
                 final HashSet<DalvikInstance> instSet = new HashSet<DalvikInstance>();
                 final HashSet<DalvikImplementation> implSet = new HashSet<DalvikImplementation>();
                 final GeneralClass gc = classes.get(c);
@@ -397,17 +427,17 @@ public class Dispatch {
                     }
                     if (instSet.isEmpty()
                             || implSet.isEmpty()) {
-                        putFailed(c,m,className,methodName);
+                        putFailed(CallType.SUPER, c,m,className,methodName);
                         return null;
                     }
                     else{
-                        putImplementations(c,m,implSet);
-                        putInstances(c,m,instSet);
+                        putImplementations(CallType.SUPER, c,m,implSet);
+                        putInstances(CallType.SUPER, c,m,instSet);
                         return new DispatchResult(instSet, implSet);
                     }
                 }
                 else{
-                    putFailed(c,m,className,methodName);
+                    putFailed(CallType.SUPER, c,m,className,methodName);
                     return null;
                 }
                 
@@ -417,14 +447,17 @@ public class Dispatch {
     
     private DispatchResult interfaceDispatch(final int c, final int m,
             final String className, final String methodName) {
-        final StringPair checkFailed = getFailed(c, m);
+        final StringPair checkFailed = getFailed(CallType.INTERFACE, c, m);
         if (checkFailed != null) {
+            hits.incrementAndGet();
             return null;
         } else {
-            if ((getImplementations(c, m) != null)
-                    && (getInstances(c, m) != null)) {
-                return new DispatchResult(getInstances(c, m), getImplementations(c, m));
+            if ((getImplementations(CallType.INTERFACE, c, m) != null)
+                    && (getInstances(CallType.INTERFACE, c, m) != null)) {
+                hits.incrementAndGet();
+                return new DispatchResult(getInstances(CallType.INTERFACE, c, m), getImplementations(CallType.INTERFACE, c, m));
             } else {
+                misses.incrementAndGet();
                 final HashSet<DalvikInstance> instSet = new HashSet<DalvikInstance>();
                 final HashSet<DalvikImplementation> implSet = new HashSet<DalvikImplementation>();
                 
@@ -445,12 +478,12 @@ public class Dispatch {
                 }
                 if (instSet.isEmpty()
                    || implSet.isEmpty()) {
-                   putFailed(c,m,className,methodName);
+                   putFailed(CallType.INTERFACE, c,m,className,methodName);
                    return null;
                 }
                 else{
-                   putImplementations(c,m,implSet);
-                   putInstances(c,m,instSet);
+                   putImplementations(CallType.INTERFACE, c,m,implSet);
+                   putInstances(CallType.INTERFACE, c,m,instSet);
                    return new DispatchResult(instSet, implSet);
                    }
              }
@@ -459,14 +492,17 @@ public class Dispatch {
     
     private DispatchResult virtualDispatch(final int c, final int m,
             final String className, final String methodName) {
-        final StringPair checkFailed = getFailed(c, m);
+        final StringPair checkFailed = getFailed(CallType.VIRTUAL, c, m);
         if (checkFailed != null) {
+            hits.incrementAndGet();
             return null;
         } else {
-            if ((getImplementations(c, m) != null)
-                    && (getInstances(c, m) != null)) {
-                return new DispatchResult(getInstances(c, m), getImplementations(c, m));
+            if ((getImplementations(CallType.VIRTUAL, c, m) != null)
+                    && (getInstances(CallType.VIRTUAL, c, m) != null)) {
+                hits.incrementAndGet();
+                return new DispatchResult(getInstances(CallType.VIRTUAL, c, m), getImplementations(CallType.VIRTUAL, c, m));
             } else {
+                misses.incrementAndGet();
                 final HashSet<DalvikInstance> instSet = new HashSet<DalvikInstance>();
                 final HashSet<DalvikImplementation> implSet = new HashSet<DalvikImplementation>();
                 final GeneralClass gc = classes.get(c);
@@ -500,12 +536,12 @@ public class Dispatch {
                     }
                     if (instSet.isEmpty()
                             || implSet.isEmpty()) {
-                        putFailed(c,m,className,methodName);
+                        putFailed(CallType.VIRTUAL, c,m,className,methodName);
                         return null;
                     }
                     else{
-                        putImplementations(c,m,implSet);
-                        putInstances(c,m,instSet);
+                        putImplementations(CallType.VIRTUAL, c,m,implSet);
+                        putInstances(CallType.VIRTUAL, c,m,instSet);
                         return new DispatchResult(instSet, implSet);
                     }
                 }
@@ -518,8 +554,8 @@ public class Dispatch {
                                 if (dalCl.getSuperClass().getType().hashCode() == c){
                                     final DispatchResult dr = virtualDispatch(dalCl.getType().hashCode(), m, className, methodName);
                                     if (dr != null){
-                                        putImplementations(c,m,dr.getImplementations());
-                                        putInstances(c,m,dr.getInstances());
+                                        putImplementations(CallType.VIRTUAL, c,m,dr.getImplementations());
+                                        putInstances(CallType.VIRTUAL, c,m,dr.getInstances());
                                         implSet.addAll(dr.getImplementations());
                                         instSet.addAll(dr.getInstances());
                                         found = true;
@@ -535,8 +571,8 @@ public class Dispatch {
                                 if (dalCl.getSuperClass().getType().hashCode() == c){
                                     final DispatchResult dr = virtualDispatch(dalCl.getType().hashCode(), m, className, methodName);
                                     if (dr != null){
-                                        putImplementations(c,m,dr.getImplementations());
-                                        putInstances(c,m,dr.getInstances());
+                                        putImplementations(CallType.VIRTUAL, c,m,dr.getImplementations());
+                                        putInstances(CallType.VIRTUAL, c,m,dr.getInstances());
                                         implSet.addAll(dr.getImplementations());
                                         instSet.addAll(dr.getInstances());
                                         found = true;
@@ -550,8 +586,8 @@ public class Dispatch {
                                 if (dalCl.getSuperClass().getType().hashCode() == c){
                                     final DispatchResult dr = virtualDispatch(dalCl.getType().hashCode(), m, className, methodName);
                                     if (dr != null){
-                                        putImplementations(c,m,dr.getImplementations());
-                                        putInstances(c,m,dr.getInstances());
+                                        putImplementations(CallType.VIRTUAL, c,m,dr.getImplementations());
+                                        putInstances(CallType.VIRTUAL, c,m,dr.getInstances());
                                         implSet.addAll(dr.getImplementations());
                                         instSet.addAll(dr.getInstances());
                                         found = true;
@@ -564,7 +600,7 @@ public class Dispatch {
                         return new DispatchResult(instSet, implSet);
                     }
                     else{*/
-                        putFailed(c,m,className,methodName);
+                        putFailed(CallType.VIRTUAL, c,m,className,methodName);
                         return null;
                     //}
                 }
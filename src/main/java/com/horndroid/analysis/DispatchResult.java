@@ -45,6 +45,13 @@ public class DispatchResult {
     public HashSet<DalvikImplementation> getImplementations(){
         return implementations;
     }
+    /*
+     * Return a result holding copies of the sets, which can be merged without modifying this one
+     */
+    DispatchResult copy(){
+        return new DispatchResult(instances == null ? null : new HashSet<DalvikInstance>(instances),
+                implementations == null ? null : new HashSet<DalvikImplementation>(implementations));
+    }
     public void mergeResults(final DispatchResult dr){
         this.instances.addAll(dr.getInstances());
         this.implementations.addAll(dr.getImplementations());
@@ -33,6 +33,7 @@ import com.horndroid.Main;
 import com.horndroid.debugging.QUERY_TYPE;
 import com.horndroid.Options;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -172,7 +173,7 @@ public class FSInstructionAnalysis{
     }
 
     public void CreateHornClauses(Options options, Set<StringPair> apkClassesMethods){
-        final Dispatch dispatch = analysis.makeDispatch();
+        final Dispatch dispatch = analysis.getDispatch();
         DispatchResult dispatchResult = null;
         Integer staticFieldClassName;
         final int size = analysis.getSize();
@@ -499,7 +500,7 @@ public class FSInstructionAnalysis{
 
                     regUpV.clear(); regUpH.clear(); regUpL.clear(); regUpG.clear();
 
-                    final Map<Integer, Boolean> fields = analysis.getClassFields(referenceString, instanceNum);
+                    final Map<Integer, Boolean> fields = analysis.getInstanceFields(referenceString, instanceNum);
                     if (fields != null){
                         for (Map.Entry<Integer, Boolean> fieldN : fields.entrySet()){
                             buildH();
@@ -936,7 +937,8 @@ public class FSInstructionAnalysis{
                 buildB();
                 buildRule();
 
-                for (final ArrayData ad: analysis.getArrayData()){
+                final ArrayData ad = analysis.getArrayData(c, m, codeAddress + ((Instruction31t)instruction).getCodeOffset());
+                if (ad != null){
                     List<Number> elements = ad.getElements(c, m, codeAddress + ((Instruction31t)instruction).getCodeOffset());
                     if (elements != null){
                         int elNum = 0;
@@ -985,7 +987,8 @@ public class FSInstructionAnalysis{
 
             case PACKED_SWITCH:
                 BoolExpr negationString = fsengine.mkFalse();
-                for (final PackedSwitch ps: analysis.getPackedSwitch()){
+                final PackedSwitch ps = analysis.getPackedSwitch(c, m, codeAddress + ((Instruction31t)instruction).getCodeOffset());
+                if (ps != null){
                     List<Number> targets = ps.getTargets(c, m, codeAddress + ((Instruction31t)instruction).getCodeOffset());
                     if (targets != null){
                         negationString = fsengine.mkTrue();
@@ -1011,7 +1014,6 @@ public class FSInstructionAnalysis{
                             );
                             t++;
                         }
-                        break;
                     }
                 }
                 h = fsengine.and(
@@ -1025,7 +1027,8 @@ public class FSInstructionAnalysis{
 
             case SPARSE_SWITCH:
                 negationString = fsengine.mkFalse();
-                for (final SparseSwitch ss: analysis.getSparseSwitch()){
+                final SparseSwitch ss = analysis.getSparseSwitch(c, m, codeAddress + ((Instruction31t)instruction).getCodeOffset());
+                if (ss != null){
                     Map<Integer, Integer> targets = ss.getTargets(c, m, codeAddress + ((Instruction31t)instruction).getCodeOffset());
                     if (targets != null){
                         negationString = fsengine.mkTrue();
@@ -1048,7 +1051,6 @@ public class FSInstructionAnalysis{
                                     )
                             );
                         }
-                        break;
                     }
                 }
                 h = fsengine.and(
@@ -1345,31 +1347,25 @@ public class FSInstructionAnalysis{
                 regUpV.clear();regUpH.clear();regUpL.clear();regUpG.clear();
 
                 //Object on local heap
-                for (int allocationPoint : analysis.getAllocationPoints()){
-                    //we do not generate rules if class of the object allocated at 'allocationPoint' has no entry for the field allocated by the dalvik instruction
-
-                    if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint) != null){
-                        if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint).containsKey(referenceIntIndex)){
-                            buildH();
-                            h = fsengine.and(
-                                    h,
-                                    fsvar.getL(registerB()),
-                                    fsengine.eq(fsvar.getV(registerB()),fsengine.mkBitVector(allocationPoint,size))
-                            );
-                            int fieldPosition = fsengine.getOffset(allocationPoint) + analysis.getFieldOffset(allocationPoint, referenceIntIndex);
-
-                            regUpV.put(registerA(),fsvar.getLHV(fieldPosition));
-                            regUpH.put(registerA(),fsvar.getLHH(fieldPosition));
-                            regUpL.put(registerA(),fsvar.getLHL(fieldPosition));
-                            regUpG.put(registerA(),fsvar.getLHG(fieldPosition));
-                            buildB();
-                            buildRule();
+                //we only generate rules for the allocation points whose class has an entry for the field accessed by the dalvik instruction
+                for (int allocationPoint : analysis.getAllocationPointsWithField(referenceIntIndex)){
+                    buildH();
+                    h = fsengine.and(
+                            h,
+                            fsvar.getL(registerB()),
+                            fsengine.eq(fsvar.getV(registerB()),fsengine.mkBitVector(allocationPoint,size))
+                    );
+                    int fieldPosition = fsengine.getOffset(allocationPoint) + analysis.getFieldOffset(allocationPoint, referenceIntIndex);
 
-                            regUpV.clear();regUpH.clear();regUpL.clear();regUpG.clear();
-                            regUpLHV.clear();regUpLHH.clear();regUpLHL.clear();regUpLHG.clear();
+                    regUpV.put(registerA(),fsvar.getLHV(fieldPosition));
+                    regUpH.put(registerA(),fsvar.getLHH(fieldPosition));
+                    regUpL.put(registerA(),fsvar.getLHL(fieldPosition));
+                    regUpG.put(registerA(),fsvar.getLHG(fieldPosition));
+                    buildB();
+                    buildRule();
 
-                        }
-                    }
+                    regUpV.clear();regUpH.clear();regUpL.clear();regUpG.clear();
+                    regUpLHV.clear();regUpLHH.clear();regUpLHL.clear();regUpLHG.clear();
                 }
 
                 break;//((short)0x58, "iget-short", ReferenceType.FIELD, Format.Format22c, Opcode.CAN_THROW | Opcode.CAN_CONTINUE | Opcode.SETS_REGISTER),
@@ -1448,26 +1444,23 @@ public class FSInstructionAnalysis{
                     this.liftIfLocal(h, null);
                 }
                 //object is on the local heap: update the local heap
-                for (int allocationPoint : analysis.getAllocationPoints()){
-                    //we do not generate rules if class of the object allocated at 'allocationPoint' has no entry for the field allocated by the dalvik instruction
-                    if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint) != null)
-                        if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint).containsKey(referenceIntIndex)){
-                            h = fsengine.and(
-                                    fsengine.rPred(classIndex, methodIndex, codeAddress, regUpV, regUpH, regUpL, regUpG, regUpLHV, regUpLHH, regUpLHL, regUpLHG, regUpLHF, numParLoc, numRegLoc),
-                                    fsengine.eq(fsvar.getL(((TwoRegisterInstruction)instruction).getRegisterB()),fsengine.mkTrue()),
-                                    fsengine.eq(fsvar.getV(registerB()),fsengine.mkBitVector(allocationPoint,size))
-                            );
-                            int fieldPosition = fsengine.getOffset(allocationPoint) + analysis.getFieldOffset(allocationPoint, referenceIntIndex);
-                            regUpLHV.put(fieldPosition, fsvar.getV(registerA()));
-                            regUpLHH.put(fieldPosition, fsvar.getH(registerA()));
-                            regUpLHL.put(fieldPosition, fsvar.getL(registerA()));
-                            regUpLHG.put(fieldPosition, fsvar.getG(registerA()));
-                            buildB();
-                            buildRule();
+                //we only generate rules for the allocation points whose class has an entry for the field accessed by the dalvik instruction
+                for (int allocationPoint : analysis.getAllocationPointsWithField(referenceIntIndex)){
+                    h = fsengine.and(
+                            fsengine.rPred(classIndex, methodIndex, codeAddress, regUpV, regUpH, regUpL, regUpG, regUpLHV, regUpLHH, regUpLHL, regUpLHG, regUpLHF, numParLoc, numRegLoc),
+                            fsengine.eq(fsvar.getL(((TwoRegisterInstruction)instruction).getRegisterB()),fsengine.mkTrue()),
+                            fsengine.eq(fsvar.getV(registerB()),fsengine.mkBitVector(allocationPoint,size))
+                    );
+                    int fieldPosition = fsengine.getOffset(allocationPoint) + analysis.getFieldOffset(allocationPoint, referenceIntIndex);
+                    regUpLHV.put(fieldPosition, fsvar.getV(registerA()));
+                    regUpLHH.put(fieldPosition, fsvar.getH(registerA()));
+                    regUpLHL.put(fieldPosition, fsvar.getL(registerA()));
+                    regUpLHG.put(fieldPosition, fsvar.getG(registerA()));
+                    buildB();
+                    buildRule();
 
-                            regUpV.clear();regUpH.clear();regUpL.clear();regUpG.clear();
-                            regUpLHV.clear();regUpLHH.clear();regUpLHL.clear();regUpLHG.clear();
-                        }
+                    regUpV.clear();regUpH.clear();regUpL.clear();regUpG.clear();
+                    regUpLHV.clear();regUpLHH.clear();regUpLHL.clear();regUpLHG.clear();
                 }
 
             }
@@ -3492,7 +3485,12 @@ public class FSInstructionAnalysis{
      * Local Heap handling functions
      */
     private void liftObject(BoolExpr h, int allocationPoint){
-        Map<Integer,Boolean> fields = analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint), allocationPoint);
+        final BitSet slice = fsengine.getHeapSlice(classIndex, methodIndex);
+        if (slice != null && !slice.get(fsengine.getOffset(allocationPoint))){
+            // the method does not carry this object, its caller lifts it on return
+            return;
+        }
+        Map<Integer,Boolean> fields = analysis.getAllocationPointFields(allocationPoint);
         int size = analysis.getSize();
         int referenceIntIndex = analysis.getAllocationPointClass(allocationPoint).hashCode();
         if (fields != null){
@@ -3517,7 +3515,7 @@ public class FSInstructionAnalysis{
         }
     }
     /*private void liftLHCObject(BoolExpr h, int allocationPoint){
-        Map<Integer,Boolean> fields = analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint), allocationPoint);
+        Map<Integer,Boolean> fields = analysis.getAllocationPointFields(allocationPoint);
         int size = analysis.getSize();
         int referenceIntIndex = analysis.getAllocationPointClass(allocationPoint).hashCode();
         if (fields != null){
@@ -3587,14 +3585,14 @@ public class FSInstructionAnalysis{
                 hg = fsengine.or(
                         hg,
                         fsengine.and(
-                                fsvar.getLHCF(fsengine.getOffset(instanceNum)),
+                                regUpLHCF.get(fsengine.getOffset(instanceNum)),
                                 fsengine.eq(fsvar.getV(i), fsengine.mkBitVector(instanceNum, size))
                         )
                 );
                 hl = fsengine.or(
                         hl,
                         fsengine.and(
-                                fsengine.not(fsvar.getLHCF(fsengine.getOffset(instanceNum))),
+                                fsengine.not(regUpLHCF.get(fsengine.getOffset(instanceNum))),
                                 fsengine.eq(fsvar.getV(i), fsengine.mkBitVector(instanceNum, size))
                         )
                 );
@@ -4192,7 +4190,7 @@ public class FSInstructionAnalysis{
                 /*
                  * Put default values for all fields of the intent
                  */
-                final Map<Integer, Boolean> fields = analysis.getClassFields(
+                final Map<Integer, Boolean> fields = analysis.getInstanceFields(
                         "Landroid/content/Intent;", instanceNum);
                 if (fields != null)
                     for (Map.Entry<Integer, Boolean> fieldN : fields.entrySet()) {
@@ -4963,9 +4961,7 @@ public class FSInstructionAnalysis{
 
             regUpV.clear(); regUpH.clear(); regUpL.clear(); regUpG.clear();
 
-            Map<Integer, Boolean> fields = Collections
-                    .synchronizedMap(new HashMap<Integer, Boolean>());
-            fields = analysis.getClassFields(referenceString, instanceNum);
+            final Map<Integer, Boolean> fields = analysis.getInstanceFields(referenceString, instanceNum);
             if (fields != null)
                 for (Map.Entry<Integer, Boolean> fieldN : fields.entrySet()) {
                     buildH();
@@ -5599,6 +5595,19 @@ public class FSInstructionAnalysis{
 
             this.initializeLHC();
 
+            // the callee leaves the slots outside its heap slice as they are, unless it lifts the whole local heap
+            final BitSet calleeSlice = fsengine.getHeapSlice(classInvokedStringName, methodInvokedStringName);
+            final BitSet callerSlice = fsengine.getHeapSlice(classIndex, methodIndex);
+            if (calleeSlice != null){
+                for (int i = calleeSlice.nextClearBit(0); i < analysis.getLocalHeapSize(); i = calleeSlice.nextClearBit(i + 1)){
+                    regUpLHCV.put(i, fsvar.getLHV(i));
+                    regUpLHCH.put(i, fsvar.getLHH(i));
+                    regUpLHCL.put(i, fsvar.getLHL(i));
+                    regUpLHCG.put(i, fsvar.getLHG(i));
+                    regUpLHCF.put(i, fsvar.getLHCO());
+                }
+            }
+
             h = fsengine.and(
                     precond,
                     subh,
@@ -5612,6 +5621,14 @@ public class FSInstructionAnalysis{
 
             if (!analysis.optionNotFlowSens()){
                 this.liftLi();
+                if (calleeSlice != null){
+                    // the objects of the caller the callee does not carry are lifted from their state before the call
+                    for (int allocationPoint : analysis.getAllocationPoints()){
+                        if (!calleeSlice.get(fsengine.getOffset(allocationPoint))){
+                            this.liftObject(fsengine.and(h, fsvar.getLHCO()), allocationPoint);
+                        }
+                    }
+                }
             }
 
             if (callReturns) {
@@ -5622,7 +5639,8 @@ public class FSInstructionAnalysis{
             }
             if (!analysis.optionNotFlowSens()){
                 for (int i = 0; i < analysis.getLocalHeapSize(); i++){
-                    regUpLHCF.put(i, fsengine.or(fsvar.getLHF(i), fsvar.getLHCF(i)));
+                    final BoolExpr filter = (callerSlice != null && !callerSlice.get(i)) ? fsvar.getLHO() : fsvar.getLHF(i);
+                    regUpLHCF.put(i, fsengine.or(filter, regUpLHCF.get(i)));
                 }
             }
             b = fsengine.rPred(classIndex, methodIndex, nextCode, regUpV, regUpH, regUpL, regUpG, regUpLHCV, regUpLHCH, regUpLHCL, regUpLHCG, regUpLHCF, numParLoc, numRegLoc);
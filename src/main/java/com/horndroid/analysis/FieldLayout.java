@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Immutable field layout of the allocation points, computed once after the allocation mapping.
+ * For each allocation point it stores the fields (hash code of the field name -> primitive flag) in the
+ * order used in the local heap and the offset of each field. It also stores for each field the allocation
+ * points whose objects have that field, so that field accesses only visit the relevant objects.
+ */
+class FieldLayout {
+    final private Map<Integer, Map<Integer, Boolean>> fields;
+    final private Map<Integer, Map<Integer, Integer>> offsets;
+    final private Map<Integer, List<Integer>> allocationPointsByField;
+
+    FieldLayout() {
+        this.fields = Collections.emptyMap();
+        this.offsets = Collections.emptyMap();
+        this.allocationPointsByField = Collections.emptyMap();
+    }
+
+    /*
+     * allocationPoints gives the order in which the allocation points are visited,
+     * classFields the fields of each allocation point as returned by Analysis.getClassFields
+     */
+    FieldLayout(final Iterable<Integer> allocationPoints, final Map<Integer, TreeMap<Integer, Boolean>> classFields) {
+        final Map<Integer, Map<Integer, Boolean>> fields = new HashMap<Integer, Map<Integer, Boolean>>();
+        final Map<Integer, Map<Integer, Integer>> offsets = new HashMap<Integer, Map<Integer, Integer>>();
+        final Map<Integer, List<Integer>> allocationPointsByField = new HashMap<Integer, List<Integer>>();
+        for (final int allocationPoint : allocationPoints) {
+            final TreeMap<Integer, Boolean> apFields = classFields.get(allocationPoint);
+            if (apFields == null) continue;
+            final Map<Integer, Integer> apOffsets = new HashMap<Integer, Integer>();
+            int offset = 0;
+            for (final int field : apFields.keySet()) {
+                apOffsets.put(field, offset++);
+                List<Integer> aps = allocationPointsByField.get(field);
+                if (aps == null) {
+                    aps = new ArrayList<Integer>();
+                    allocationPointsByField.put(field, aps);
+                }
+                aps.add(allocationPoint);
+            }
+            fields.put(allocationPoint, Collections.unmodifiableMap(new TreeMap<Integer, Boolean>(apFields)));
+            offsets.put(allocationPoint, apOffsets);
+        }
+        for (final Map.Entry<Integer, List<Integer>> entry : allocationPointsByField.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        this.fields = fields;
+        this.offsets = offsets;
+        this.allocationPointsByField = allocationPointsByField;
+    }
+
+    /*
+     * Return the sorted fields of the allocation point, null if it has no fields
+     */
+    Map<Integer, Boolean> getFields(final int allocationPoint) {
+        return fields.get(allocationPoint);
+    }
+
+    /*
+     * Return the offset of the field inside the allocation point, null if the allocation point has no such field
+     */
+    Integer getOffset(final int allocationPoint, final int field) {
+        final Map<Integer, Integer> apOffsets = offsets.get(allocationPoint);
+        if (apOffsets == null) return null;
+        return apOffsets.get(field);
+    }
+
+    /*
+     * Return the allocation points whose objects have the field
+     */
+    List<Integer> getAllocationPoints(final int field) {
+        final List<Integer> aps = allocationPointsByField.get(field);
+        if (aps == null) return Collections.emptyList();
+        return aps;
+    }
+}
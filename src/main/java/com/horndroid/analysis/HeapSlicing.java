@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.DalvikClass;
+import com.horndroid.Dalvik.DalvikImplementation;
+import com.horndroid.Dalvik.DalvikMethod;
+import com.horndroid.util.CMPair;
+import com.horndroid.util.Utils;
+import com.horndroid.util.Utils.CallType;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Local heap slots each method needs in its relations: the slots of the allocation points the method creates
+ * objects at, the slots of the allocation points whose field it reads or writes, and the slots its callees
+ * need. A callee leaves the other slots of its caller untouched, so they are restored at the return.
+ * The call edges are the ones the invoke clauses get from the dispatch.
+ */
+class HeapSlicing {
+    // instructions reading or writing a field of an object on the local heap
+    private static final Set<Opcode> FIELD_ACCESS = EnumSet.of(Opcode.IGET, Opcode.IGET_WIDE, Opcode.IGET_OBJECT,
+            Opcode.IGET_BOOLEAN, Opcode.IGET_BYTE, Opcode.IGET_CHAR, Opcode.IGET_SHORT, Opcode.IPUT,
+            Opcode.IPUT_WIDE, Opcode.IPUT_OBJECT, Opcode.IPUT_BOOLEAN, Opcode.IPUT_BYTE, Opcode.IPUT_CHAR,
+            Opcode.IPUT_SHORT);
+    // call type of each invoke instruction, as the invoke clauses dispatch it
+    private static final Map<Opcode, CallType> CALL_TYPES = new EnumMap<>(Opcode.class);
+
+    static {
+        CALL_TYPES.put(Opcode.INVOKE_SUPER, CallType.SUPER);
+        CALL_TYPES.put(Opcode.INVOKE_SUPER_RANGE, CallType.SUPER);
+        CALL_TYPES.put(Opcode.INVOKE_VIRTUAL, CallType.VIRTUAL);
+        CALL_TYPES.put(Opcode.INVOKE_VIRTUAL_RANGE, CallType.VIRTUAL);
+        CALL_TYPES.put(Opcode.INVOKE_INTERFACE, CallType.INTERFACE);
+        CALL_TYPES.put(Opcode.INVOKE_INTERFACE_RANGE, CallType.INTERFACE);
+        CALL_TYPES.put(Opcode.INVOKE_DIRECT, CallType.DIRECT);
+        CALL_TYPES.put(Opcode.INVOKE_DIRECT_RANGE, CallType.DIRECT);
+        CALL_TYPES.put(Opcode.INVOKE_STATIC, CallType.STATIC);
+        CALL_TYPES.put(Opcode.INVOKE_STATIC_RANGE, CallType.STATIC);
+    }
+
+    private HeapSlicing() {
+    }
+
+    /*
+     * Class and method hash codes -> local heap slots of the method
+     */
+    static Map<CMPair, BitSet> heapSlices(final Analysis analysis, final List<DalvikClass> classes) {
+        final Dispatch dispatch = analysis.getDispatch();
+        final Map<CMPair, BitSet> slices = new HashMap<>();
+        final Map<CMPair, Set<CMPair>> callers = new HashMap<>();
+        final Map<CMPair, Set<CMPair>> callees = new HashMap<>();
+        for (final DalvikClass dc : classes) {
+            final int c = dc.getType().hashCode();
+            for (final DalvikMethod dm : dc.getMethods()) {
+                final int m = dm.getName().hashCode();
+                final CMPair method = new CMPair(c, m);
+                final BitSet slice = new BitSet();
+                final Set<CMPair> called = new HashSet<>();
+                int codeAddress = 0;
+                for (final Instruction instruction : dm.getInstructions()) {
+                    final Opcode opcode = instruction.getOpcode();
+                    if (opcode == Opcode.NEW_INSTANCE) {
+                        addAllocationPoint(analysis, slice, analysis.getInstNum(c, m, codeAddress));
+                    } else if (FIELD_ACCESS.contains(opcode)) {
+                        final Reference reference = ((ReferenceInstruction) instruction).getReference();
+                        final int field = Utils.getShortReferenceString(reference).hashCode();
+                        if (reference instanceof FieldReference) {
+                            for (final int allocationPoint : analysis.getAllocationPointsWithField(field)) {
+                                addAllocationPoint(analysis, slice, allocationPoint);
+                            }
+                        }
+                    } else if (CALL_TYPES.containsKey(opcode)) {
+                        final Reference reference = ((ReferenceInstruction) instruction).getReference();
+                        if (reference instanceof MethodReference) {
+                            final String referenceString = Utils.getShortReferenceString(reference);
+                            final String referenceStringClass = ((MethodReference) reference).getDefiningClass();
+                            final DispatchResult dispatchResult = dispatch.dispatch(referenceStringClass.hashCode(),
+                                    referenceString.hashCode(), referenceStringClass, referenceString,
+                                    CALL_TYPES.get(opcode));
+                            if (dispatchResult != null) {
+                                for (final DalvikImplementation di : dispatchResult.getImplementations()) {
+                                    called.add(new CMPair(di.getDalvikClass().getType().hashCode(),
+                                            di.getMethod().getName().hashCode()));
+                                }
+                            }
+                        }
+                    }
+                    codeAddress += instruction.getCodeUnits();
+                }
+                slices.put(method, slice);
+                callees.put(method, called);
+                for (final CMPair callee : called) {
+                    Set<CMPair> s = callers.get(callee);
+                    if (s == null) {
+                        s = new HashSet<>();
+                        callers.put(callee, s);
+                    }
+                    s.add(method);
+                }
+            }
+        }
+
+        // a caller needs the slots of its callees, propagate until nothing changes
+        final Deque<CMPair> worklist = new ArrayDeque<>(slices.keySet());
+        final Set<CMPair> queued = new HashSet<>(slices.keySet());
+        while (!worklist.isEmpty()) {
+            final CMPair method = worklist.poll();
+            queued.remove(method);
+            final BitSet slice = slices.get(method);
+            final int before = slice.cardinality();
+            for (final CMPair callee : callees.get(method)) {
+                final BitSet calleeSlice = slices.get(callee);
+                if (calleeSlice != null) {
+                    slice.or(calleeSlice);
+                }
+            }
+            if (slice.cardinality() != before) {
+                final Set<CMPair> s = callers.get(method);
+                if (s != null) {
+                    for (final CMPair caller : s) {
+                        if (queued.add(caller)) {
+                            worklist.add(caller);
+                        }
+                    }
+                }
+            }
+        }
+        return slices;
+    }
+
+    /*
+     * Add the slots of the object created at allocationPoint, if it lives on the local heap
+     */
+    private static void addAllocationPoint(final Analysis analysis, final BitSet slice, final int allocationPoint) {
+        final Integer offset = analysis.getFSEngine().getOffset(allocationPoint);
+        if (offset != null) {
+            slice.set(offset, offset + analysis.getFSEngine().getSize(allocationPoint) + 1);
+        }
+    }
+}
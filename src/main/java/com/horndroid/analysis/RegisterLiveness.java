@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.DalvikMethod;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.instruction.FiveRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.RegisterRangeInstruction;
+import org.jf.dexlib2.iface.instruction.ThreeRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.TwoRegisterInstruction;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Live registers of each program point of a method, following the transitions the Horn clauses of the
+ * method have. Every register an instruction names is a use, because the clauses may read any of its labels.
+ * Only the instructions whose clauses set the value and all three labels of register A kill it: the other
+ * instructions carry the labels they don't set over from the previous program point.
+ * The result register and the copies of the arguments are not covered, they are always kept.
+ */
+class RegisterLiveness {
+    // instructions that overwrite the value and the labels of register A
+    private static final Set<Opcode> KILLS_A = EnumSet.of(Opcode.MOVE, Opcode.MOVE_FROM16, Opcode.MOVE_16,
+            Opcode.MOVE_WIDE, Opcode.MOVE_WIDE_FROM16, Opcode.MOVE_WIDE_16, Opcode.MOVE_OBJECT,
+            Opcode.MOVE_OBJECT_FROM16, Opcode.MOVE_OBJECT_16, Opcode.MOVE_RESULT, Opcode.MOVE_RESULT_WIDE,
+            Opcode.MOVE_RESULT_OBJECT, Opcode.CONST_4, Opcode.CONST_16, Opcode.CONST, Opcode.CONST_HIGH16,
+            Opcode.CONST_WIDE_16, Opcode.CONST_WIDE_32, Opcode.CONST_WIDE, Opcode.CONST_WIDE_HIGH16,
+            Opcode.CONST_STRING, Opcode.CONST_STRING_JUMBO, Opcode.CONST_CLASS);
+    // instructions without a transition to the next instruction
+    private static final Set<Opcode> NO_NEXT = EnumSet.of(Opcode.RETURN_VOID, Opcode.RETURN, Opcode.RETURN_WIDE,
+            Opcode.RETURN_OBJECT, Opcode.THROW, Opcode.GOTO, Opcode.GOTO_16, Opcode.GOTO_32);
+
+    private RegisterLiveness() {
+    }
+
+    /*
+     * Code address -> registers live before the instruction at that address, c and m being the class and
+     * method hash codes
+     */
+    static Map<Integer, BitSet> liveRegisters(final Analysis analysis, final int c, final int m,
+                                              final DalvikMethod dm) {
+        final List<Instruction> instructions = new ArrayList<>(dm.getInstructions());
+        final int n = instructions.size();
+        final Map<Integer, Integer> indexOf = new HashMap<>();
+        final int[] addresses = new int[n];
+        int codeAddress = 0;
+        for (int i = 0; i < n; i++) {
+            addresses[i] = codeAddress;
+            indexOf.put(codeAddress, i);
+            codeAddress += instructions.get(i).getCodeUnits();
+        }
+
+        final List<List<Integer>> successors = new ArrayList<>(n);
+        final BitSet[] uses = new BitSet[n];
+        final BitSet[] kills = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            final Instruction instruction = instructions.get(i);
+            final List<Integer> next = new ArrayList<>();
+            if (i + 1 < n && (!NO_NEXT.contains(instruction.getOpcode())
+                    || instructions.get(i + 1).getOpcode() == Opcode.MOVE_EXCEPTION)) {
+                // the clauses of move-exception come from the previous instruction, whatever it is
+                next.add(i + 1);
+            }
+            for (int target : BasicBlocks.jumpTargets(analysis, c, m, instruction, addresses[i])) {
+                final Integer t = indexOf.get(target);
+                if (t != null) {
+                    next.add(t);
+                }
+            }
+            successors.add(next);
+            uses[i] = registers(instruction);
+            kills[i] = new BitSet();
+            if (KILLS_A.contains(instruction.getOpcode())) {
+                final int a = ((OneRegisterInstruction) instruction).getRegisterA();
+                kills[i].set(a);
+                if (!(instruction instanceof TwoRegisterInstruction)
+                        || ((TwoRegisterInstruction) instruction).getRegisterB() != a) {
+                    uses[i].clear(a);
+                }
+            }
+        }
+
+        final BitSet[] live = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            live[i] = (BitSet) uses[i].clone();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = n - 1; i >= 0; i--) {
+                final BitSet out = new BitSet();
+                for (int s : successors.get(i)) {
+                    out.or(live[s]);
+                }
+                out.andNot(kills[i]);
+                out.or(uses[i]);
+                if (!out.equals(live[i])) {
+                    live[i] = out;
+                    changed = true;
+                }
+            }
+        }
+
+        final Map<Integer, BitSet> result = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            result.put(addresses[i], live[i]);
+        }
+        return result;
+    }
+
+    /*
+     * Registers named by the instruction
+     */
+    private static BitSet registers(final Instruction instruction) {
+        final BitSet registers = new BitSet();
+        if (instruction instanceof OneRegisterInstruction) {
+            registers.set(((OneRegisterInstruction) instruction).getRegisterA());
+        }
+        if (instruction instanceof TwoRegisterInstruction) {
+            registers.set(((TwoRegisterInstruction) instruction).getRegisterB());
+        }
+        if (instruction instanceof ThreeRegisterInstruction) {
+            registers.set(((ThreeRegisterInstruction) instruction).getRegisterC());
+        }
+        if (instruction instanceof FiveRegisterInstruction) {
+            final FiveRegisterInstruction five = (FiveRegisterInstruction) instruction;
+            final int[] all = {five.getRegisterC(), five.getRegisterD(), five.getRegisterE(), five.getRegisterF(),
+                    five.getRegisterG()};
+            for (int i = 0; i < five.getRegisterCount() && i < all.length; i++) {
+                registers.set(all[i]);
+            }
+        }
+        if (instruction instanceof RegisterRangeInstruction) {
+            final RegisterRangeInstruction range = (RegisterRangeInstruction) instruction;
+            registers.set(range.getStartRegister(), range.getStartRegister() + range.getRegisterCount());
+        }
+        return registers;
+    }
+}
@@ -41,9 +41,7 @@ import com.horndroid.Dalvik.GeneralClass;
 import com.horndroid.Dalvik.Instances;
 import com.horndroid.Dalvik.Interfaces;
 import com.horndroid.Options;
-import com.horndroid.payload.ArrayData;
-import com.horndroid.payload.PackedSwitch;
-import com.horndroid.payload.SparseSwitch;
+import com.horndroid.payload.PayloadIndex;
 import com.horndroid.strings.ConstString;
 import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
@@ -57,9 +55,7 @@ import com.google.common.collect.Ordering;
 public class Stubs {
     final private Map<Integer,GeneralClass> classes;
     final private Instances instances;
-    final private Set<ArrayData> arrayDataPayload;
-    final private Set<PackedSwitch> packedSwitchPayload;
-    final private Set<SparseSwitch> sparseSwitchPayload;
+    final private PayloadIndex payloads;
     final private Set<Integer> staticConstructor;
     final private Set<ConstString> constStrings;
     final private Options options;
@@ -70,9 +66,7 @@ public class Stubs {
         this.classes = new ConcurrentHashMap<Integer, GeneralClass>();
         this.instances = new Instances();
         this.constStrings = Collections.synchronizedSet(new HashSet <ConstString>());
-        this.arrayDataPayload = Collections.synchronizedSet(new HashSet <ArrayData>());
-        this.packedSwitchPayload = Collections.synchronizedSet(new HashSet <PackedSwitch>());
-        this.sparseSwitchPayload = Collections.synchronizedSet(new HashSet <SparseSwitch>());
+        this.payloads = new PayloadIndex();
         this.options = options;
         this.staticConstructor = Collections.synchronizedSet(new HashSet<Integer>());
         this.interfaces = new Interfaces();
@@ -112,7 +106,7 @@ public class Stubs {
 
         System.out.println("data extracting...");
         startTime = System.nanoTime();
-        DataExtraction de = new DataExtraction(classes, instances, arrayDataPayload, packedSwitchPayload, sparseSwitchPayload, staticConstructor, constStrings, new HashSet<Integer>(),
+        DataExtraction de = new DataExtraction(classes, instances, payloads, staticConstructor, constStrings, new HashSet<Integer>(),
                 false, null, null, null, null, interfaces,
                 allowed, filterClasses, filterSound);
         de.collectData(classDefs);
@@ -129,12 +123,8 @@ public class Stubs {
         return instances;
     }
     
-    public Set<PackedSwitch> getPackedSwitchPayload(){
-        return packedSwitchPayload;
-    }
-    
-    public Set<SparseSwitch> getSparseSwitchPayload(){
-        return sparseSwitchPayload;
+    public PayloadIndex getPayloads(){
+        return payloads;
     }
     
     public Set<Integer> getStaticConstructor(){
@@ -144,9 +134,5 @@ public class Stubs {
     public Set<ConstString> getConstStrings(){
         return constStrings;
     }
-    
-    public Set<ArrayData> getArrayDataPayload(){
-        return arrayDataPayload;
-    }
 
 }
@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.executors;
+
+import com.horndroid.Options;
+import com.horndroid.model.Report;
+import com.horndroid.z3.FSEngine;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+/**
+ * An analysis submitted to the analysis server
+ *
+ */
+public class AnalysisJob {
+    public enum State {QUEUED, RUNNING, DONE, FAILED, CANCELLED}
+
+    private final int id;
+    private final File apkFile;
+    private final Options options;
+    private volatile State state = State.QUEUED;
+    private volatile String error;
+    private volatile boolean cancelRequested = false;
+    private volatile FSEngine fsengine;
+    private volatile Future<Report> future;
+    // when the job reached its final state, 0 while it is queued or running
+    private volatile long finishedTime = 0;
+
+    AnalysisJob(int id, File apkFile, Options options) {
+        this.id = id;
+        this.apkFile = apkFile;
+        this.options = options;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public File getApkFile() {
+        return apkFile;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    Future<Report> getFuture() {
+        return future;
+    }
+
+    void setFuture(Future<Report> future) {
+        this.future = future;
+    }
+
+    long getFinishedTime() {
+        return finishedTime;
+    }
+
+    /*
+     * Record the end of the job, true only for the first call so that a job is accounted once
+     */
+    synchronized boolean finish() {
+        if (finishedTime != 0) return false;
+        finishedTime = System.currentTimeMillis();
+        return true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /*
+     * Called once the engine of the analysis exists, so that a cancellation can reach the solver
+     */
+    void attach(FSEngine fsengine) {
+        this.fsengine = fsengine;
+        if (cancelRequested) {
+            fsengine.cancel();
+        }
+    }
+
+    /*
+     * A queued job never starts, a running job stops at the next class or query
+     */
+    public void cancel() {
+        cancelRequested = true;
+        final Future<Report> f = future;
+        if (f != null) {
+            f.cancel(false);
+        }
+        final FSEngine engine = fsengine;
+        if (engine != null) {
+            engine.cancel();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.executors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.horndroid.Options;
+import com.horndroid.exceptions.ApkAnalysisException;
+import com.horndroid.model.Report;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the analysis state (Z3, sources and sinks, entry points, callbacks, stubs) at start-up, keeps it
+ * resident and runs the analyses submitted over a small HTTP endpoint on the loopback interface:
+ *
+ * POST   /jobs               {"apk": "/path/app.apk", "options": {"timeout": 60, ...}} queues a job, the
+ *                            options are limited to those of the analysis (JOB_OPTIONS)
+ * GET    /jobs               status of every job
+ * GET    /jobs/{id}          status of a job
+ * GET    /jobs/{id}/report   waits for the job and streams its report as JSON
+ * DELETE /jobs/{id}          cancels a queued or running job
+ * GET    /metrics            running totals of the finished jobs in the Prometheus text format
+ *
+ * At most batchSize jobs run at once, the others wait in submission order. A finished job is forgotten once
+ * its report has been sent, or JOB_RETENTION_MILLISECONDS after it finished.
+ */
+public class AnalysisServer {
+
+    private static final Logger LOGGER = LogManager.getLogger(AnalysisServer.class);
+    private static final long JOB_RETENTION_MILLISECONDS = 10 * 60 * 1000;
+    // the Options fields a job may set; output locations and the server settings are left to the server
+    private static final Set<String> JOB_OPTIONS = new HashSet<>(Arrays.asList("arrays", "debug",
+            "verboseResults", "apiLevel", "bitvectorSize", "maxQueries", "debugInt", "stubs", "timeout",
+            "retryTimeout", "memoryLimit", "tillFirstLeak", "sensIfHasSink", "oldUnknown", "nfsanalysis",
+            "pointersMerge", "nopUnknown", "filterClasses", "filterClassesSound", "querySession", "solverThreads",
+            "generationThreads", "ruleSlicing", "reachabilityPrecheck", "groupQueries", "portfolio",
+            "solverProfile", "largeBlocks", "liveRegisters", "heapSlicing", "heapArrays"));
+    private final HorndroidExecutor horndroidExecutor;
+    private final Options serverOptions;
+    private final ExecutorService jobExecutorService;
+    private final Map<Integer, AnalysisJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger nextJobId = new AtomicInteger(1);
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JobMetrics metrics = new JobMetrics();
+
+    public AnalysisServer(HorndroidExecutor horndroidExecutor, Options serverOptions) {
+        this.horndroidExecutor = horndroidExecutor;
+        this.serverOptions = serverOptions;
+        this.jobExecutorService = Executors.newFixedThreadPool(Math.max(1, serverOptions.batchSize));
+    }
+
+    /*
+     * Load the shared state and warm up before accepting jobs, so that the first job does not pay for it
+     */
+    public void start(int port) throws IOException {
+        horndroidExecutor.preload();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jobs", new JobsHandler());
+        server.createContext("/metrics", new MetricsHandler());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        LOGGER.info("Analysis server listening on " + server.getAddress() + ", running up to " +
+                Math.max(1, serverOptions.batchSize) + " job(s) at once");
+    }
+
+    /*
+     * The first option of the request a job may not set, or null when all of them are allowed
+     */
+    private static String rejectedOption(JsonNode jobOptions) {
+        if (jobOptions == null || jobOptions.isNull()) {
+            return null;
+        }
+        if (!jobOptions.isObject()) {
+            return "options";
+        }
+        final Iterator<String> names = jobOptions.fieldNames();
+        while (names.hasNext()) {
+            final String name = names.next();
+            if (!JOB_OPTIONS.contains(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Queue the analysis of apkFile, the options of the request are applied over the server options
+     */
+    AnalysisJob submit(File apkFile, JsonNode jobOptions) throws IOException {
+        Options options = serverOptions.copy();
+        if (jobOptions != null) {
+            options = mapper.readerForUpdating(options).readValue(jobOptions);
+        }
+        final AnalysisJob job = new AnalysisJob(nextJobId.getAndIncrement(), apkFile, options);
+        jobs.put(job.getId(), job);
+        job.setFuture(jobExecutorService.submit(new Callable<Report>() {
+            @Override
+            public Report call() throws ApkAnalysisException {
+                return runJob(job);
+            }
+        }));
+        LOGGER.info("Job " + job.getId() + " queued: " + apkFile);
+        return job;
+    }
+
+    private Report runJob(AnalysisJob job) throws ApkAnalysisException {
+        if (job.isCancelRequested()) {
+            job.setState(AnalysisJob.State.CANCELLED);
+            finish(job, null);
+            return null;
+        }
+        job.setState(AnalysisJob.State.RUNNING);
+        Report report = null;
+        try {
+            report = horndroidExecutor.analyse(job.getApkFile(), job.getOptions(), job);
+            job.setState(AnalysisJob.State.DONE);
+            return report;
+        } catch (ApkAnalysisException | RuntimeException e) {
+            if (job.isCancelRequested()) {
+                job.setState(AnalysisJob.State.CANCELLED);
+            } else {
+                LOGGER.error("Job " + job.getId() + " failed", e);
+                job.setError(e.getMessage());
+                job.setState(AnalysisJob.State.FAILED);
+            }
+            throw e;
+        } catch (Error e) {
+            LOGGER.error("Job " + job.getId() + " failed", e);
+            job.setError(e.toString());
+            job.setState(AnalysisJob.State.FAILED);
+            throw e;
+        } finally {
+            if (job.getState() == AnalysisJob.State.RUNNING) {
+                job.setState(AnalysisJob.State.FAILED);
+            }
+            finish(job, report);
+        }
+    }
+
+    private void finish(AnalysisJob job, Report report) {
+        if (job.finish()) {
+            metrics.record(job.getState(), job.getState() == AnalysisJob.State.DONE ? report : null);
+        }
+    }
+
+    /*
+     * A job cancelled while queued never runs, it is accounted here
+     */
+    private void cancel(AnalysisJob job) {
+        job.cancel();
+        if (job.getState() == AnalysisJob.State.QUEUED) {
+            job.setState(AnalysisJob.State.CANCELLED);
+            finish(job, null);
+        }
+    }
+
+    /*
+     * Forget the jobs that finished more than JOB_RETENTION_MILLISECONDS ago
+     */
+    private void evictFinishedJobs() {
+        final long now = System.currentTimeMillis();
+        final Iterator<AnalysisJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            final long finishedTime = it.next().getFinishedTime();
+            if (finishedTime != 0 && now - finishedTime > JOB_RETENTION_MILLISECONDS) {
+                it.remove();
+            }
+        }
+    }
+
+    private Map<String, Object> status(AnalysisJob job) {
+        final Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", job.getId());
+        status.put("apk", job.getApkFile().getPath());
+        AnalysisJob.State state = job.getState();
+        if (state == AnalysisJob.State.QUEUED && job.isCancelRequested()) {
+            state = AnalysisJob.State.CANCELLED;
+        }
+        status.put("state", state.toString());
+        if (job.getError() != null) {
+            status.put("error", job.getError());
+        }
+        return status;
+    }
+
+    private class JobsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            evictFinishedJobs();
+            try {
+                final String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+                final String method = exchange.getRequestMethod();
+                // path is "", "jobs" [, id [, "report"]]
+                if (path.length == 2) {
+                    if (method.equals("POST")) {
+                        final JsonNode request = mapper.readTree(exchange.getRequestBody());
+                        if (request == null || !request.hasNonNull("apk")) {
+                            send(exchange, 400, error("missing apk"));
+                            return;
+                        }
+                        final String rejected = rejectedOption(request.get("options"));
+                        if (rejected != null) {
+                            send(exchange, 400, error("option not allowed in a job: " + rejected));
+                            return;
+                        }
+                        final AnalysisJob job = submit(new File(request.get("apk").asText()), request.get("options"));
+                        send(exchange, 202, status(job));
+                    } else if (method.equals("GET")) {
+                        final List<Map<String, Object>> statuses = new ArrayList<>();
+                        for (AnalysisJob job : new TreeMap<>(jobs).values()) {
+                            statuses.add(status(job));
+                        }
+                        send(exchange, 200, statuses);
+                    } else {
+                        send(exchange, 405, error("unsupported method " + method));
+                    }
+                    return;
+                }
+                final AnalysisJob job = path.length >= 3 && path[2].matches("\\d+") ?
+                        jobs.get(Integer.parseInt(path[2])) : null;
+                if (job == null || path.length > 4 || (path.length == 4 && !path[3].equals("report"))) {
+                    send(exchange, 404, error("unknown job"));
+                } else if (path.length == 4 && method.equals("GET")) {
+                    sendReport(exchange, job);
+                } else if (path.length == 3 && method.equals("GET")) {
+                    send(exchange, 200, status(job));
+                } else if (path.length == 3 && method.equals("DELETE")) {
+                    cancel(job);
+                    send(exchange, 202, status(job));
+                } else {
+                    send(exchange, 405, error("unsupported method " + method));
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Request failed", e);
+                if (exchange.getResponseCode() == -1) {
+                    send(exchange, 400, error(e.getMessage()));
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void sendReport(HttpExchange exchange, AnalysisJob job) throws IOException {
+            final Report report;
+            try {
+                report = job.getFuture().get();
+            } catch (CancellationException e) {
+                send(exchange, 409, status(job));
+                return;
+            } catch (ExecutionException e) {
+                send(exchange, 409, status(job));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, error("interrupted"));
+                return;
+            }
+            if (report == null) {
+                send(exchange, 409, status(job));
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            // chunked, the report is written as it is serialized
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                mapper.writeValue(out, report);
+            }
+            jobs.remove(job.getId());
+        }
+
+        private Map<String, Object> error(String message) {
+            return Collections.<String, Object>singletonMap("error", String.valueOf(message));
+        }
+
+        private void send(HttpExchange exchange, int code, Object body) throws IOException {
+            final byte[] bytes = mapper.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /*
+     * Prometheus metrics of the finished jobs
+     */
+    private class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                final StringWriter text = new StringWriter();
+                metrics.writePrometheus(text);
+                final byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
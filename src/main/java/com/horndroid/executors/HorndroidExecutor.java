@@ -28,10 +28,16 @@ import com.google.common.collect.Ordering;
 import com.horndroid.Options;
 import com.horndroid.analysis.Analysis;
 import com.horndroid.analysis.Stubs;
+import com.horndroid.exceptions.ApkAnalysisException;
 import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+import com.horndroid.model.ReportSink;
+import com.horndroid.printers.NdjsonReportSink;
 import com.horndroid.util.SourceSinkParser;
 import com.horndroid.util.SourcesSinks;
 import com.horndroid.z3.FSEngine;
+import com.horndroid.z3.NativeMemory;
+import com.horndroid.z3.SolverConfiguration;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -44,10 +50,14 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.horndroid.constants.TimeConstants.MILLISECONDS_IN_SECOND_CONSTANT;
 import static com.horndroid.constants.TimeConstants.TIME_DISPLAY_MILLISECONDS_CONSTANT;
@@ -62,23 +72,29 @@ public class HorndroidExecutor {
     private Options hornDroidOptions = new Options();
     private String apkToolDirPath = "./";
     private String inputApkPath = "";
+    // read only inputs shared by every analysis of this executor
+    private SourcesSinks sourcesSinks;
+    private Stubs stubs;
+    private ResultCache resultCache;
+    private boolean resultCacheOpened = false;
 
 
     public HorndroidExecutor(Options hornDroidOptions, String apkToolPath, String inputApkPath) {
         this.hornDroidOptions = hornDroidOptions;
         this.apkToolDirPath = apkToolPath;
         this.inputApkPath = inputApkPath;
+        NativeMemory.setMaxLiveFixedpoints(hornDroidOptions.maxLiveFixedpoints);
     }
 
     public HorndroidExecutor(Options hornDroidOptions, String inputApkPath) {
         this.hornDroidOptions = hornDroidOptions;
         this.inputApkPath = inputApkPath;
+        NativeMemory.setMaxLiveFixedpoints(hornDroidOptions.maxLiveFixedpoints);
     }
 
-    private static void confirmApkExistence(String inputApkFileName, File apkFile) {
+    private static void confirmApkExistence(String inputApkFileName, File apkFile) throws ApkAnalysisException {
         if (!apkFile.exists()) {
-            LOGGER.error("Can't find the file " + inputApkFileName);
-            System.exit(1);
+            throw new ApkAnalysisException("Can't find the file " + inputApkFileName);
         }
     }
 
@@ -104,27 +120,16 @@ public class HorndroidExecutor {
     }
 
     /**
-     * Add all known sources and sinks
+     * Add all known sources and sinks, they are loaded from the compiled index on the first lookup
      *
      * @return Set<SourceSinkParser>
      */
     private SourcesSinks getSourcesAndSinks() {
-
-        final SourcesSinks sourcesSinks = new SourcesSinks();
         File sourceSinkFile = new File("bin/SourcesAndSinks.txt");
-        long startTime = System.nanoTime();
-        LOGGER.debug("Parsing sources and sinks...");
-        try {
-            SourceSinkParser.parseSourceSink(sourceSinkFile, sourcesSinks);
-        } catch (IOException e) {
-            LOGGER.error("Error: Parsing sources/sinks file failed! with exception", e);
-            System.exit(1);
+        if (!sourceSinkFile.exists()) {
+            throw new RuntimeException("HorndroidExecutor Failed: can't find the sources/sinks file " + sourceSinkFile);
         }
-        long endTime = System.nanoTime();
-        LOGGER.debug("done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
-                TIME_DISPLAY_MILLISECONDS_CONSTANT);
-
-        return sourcesSinks;
+        return new SourcesSinks(sourceSinkFile, new File("bin/SourcesAndSinks.idx"));
     }
 
 
@@ -152,6 +157,9 @@ public class HorndroidExecutor {
 
         Report report = fsEngine.executeAllQueries(analysis,tag);
         endTime = System.nanoTime();
+        analysis.recordPhase("solving", endTime - startTime);
+        report.setPhaseMilliseconds(analysis.getPhaseMilliseconds());
+        report.setLocalHeapSize(analysis.getLocalHeapSize());
         LOGGER.debug("...done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
                 TIME_DISPLAY_MILLISECONDS_CONSTANT);
         return report;
@@ -165,6 +173,7 @@ public class HorndroidExecutor {
         startTime = System.nanoTime();
         analysis.collectDataFromApk(classDefs, allowed);
         endTime = System.nanoTime();
+        analysis.recordPhase("collect_data", endTime - startTime);
         LOGGER.debug("done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
                 TIME_DISPLAY_MILLISECONDS_CONSTANT);
 
@@ -191,7 +200,8 @@ public class HorndroidExecutor {
         return classDefs;
     }
 
-    private void parseCallBacksAndDisabledActivities(File file, String inputApkFileName, Analysis analysis) {
+    private void parseCallBacksAndDisabledActivities(File file, String inputApkFileName, Analysis analysis,
+                                                     String outputDirectory) throws ApkAnalysisException {
         long startTime;
         long endTime;
 
@@ -199,17 +209,16 @@ public class HorndroidExecutor {
         LOGGER.debug("Parsing callbacks and disabled activities...");
         try {
             SourceSinkParser.parseCallbacksFromXml(analysis,
-                    hornDroidOptions.outputDirectory, file.getAbsolutePath(), apkToolDirPath);
+                    outputDirectory, file.getAbsolutePath(), apkToolDirPath);
         } catch (SAXException | ParserConfigurationException | IOException e) {
-            LOGGER.error("Error: Can't read xml! " + inputApkFileName, e);
-            System.exit(1);
+            throw new ApkAnalysisException("Error: Can't read xml! " + inputApkFileName, e);
         }
         endTime = System.nanoTime();
         LOGGER.debug("...done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT)
                 + TIME_DISPLAY_MILLISECONDS_CONSTANT);
     }
 
-    private void parseEntryPoints(String inputApkFileName, Analysis analysis) {
+    private void parseEntryPoints(String inputApkFileName, Analysis analysis) throws ApkAnalysisException {
         long startTime;
         long endTime;
         startTime = System.nanoTime();
@@ -217,20 +226,21 @@ public class HorndroidExecutor {
         try {
             SourceSinkParser.parseEntryPoint(analysis);
         } catch (IOException e1) {
-            LOGGER.error("Error: Can't read entry points file! " + inputApkFileName);
-            System.exit(1);
+            throw new ApkAnalysisException("Error: Can't read entry points file! " + inputApkFileName, e1);
         }
         endTime = System.nanoTime();
         LOGGER.debug("done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT)
                 + TIME_DISPLAY_MILLISECONDS_CONSTANT);
     }
 
-    private FSEngine initializeHornDroid(String shortFilename, String fullPath) {
-        hornDroidOptions.outputDirectory = fullPath + shortFilename;
-        return new FSEngine(hornDroidOptions);
+    private FSEngine initializeHornDroid(Options apkOptions) {
+        // the FSEngine constructor sets the global Z3 parameters
+        synchronized (FSEngine.class) {
+            return new FSEngine(apkOptions);
+        }
     }
 
-    private DexBackedDexFile getDexBackedDexFile(File apkFile) {
+    private DexBackedDexFile getDexBackedDexFile(File apkFile) throws ApkAnalysisException {
         DexBackedDexFile dexFile = null;
         try {
             dexFile = DexFileFactory.loadDexFile(apkFile, hornDroidOptions.apiLevel, false);
@@ -238,8 +248,7 @@ public class HorndroidExecutor {
                 LOGGER.error("Error: Odex files are not supported");
             }
         } catch (IOException e) {
-            LOGGER.error("Error: Loading dex file failed!");
-            System.exit(1);
+            throw new ApkAnalysisException("Error: Loading dex file failed! " + apkFile.getPath(), e);
         }
         return dexFile;
     }
@@ -263,45 +272,401 @@ public class HorndroidExecutor {
         return new HashSet<Integer>();
     }
 
-    private List<Report> processFiles(SourcesSinks sourcesSinks, LinkedHashSet<File> filesToProcess,
-                                      final Set<Integer> allowed) {
-        Stubs stubs = new Stubs(hornDroidOptions);
-        List<Report> reports = new ArrayList<>();
-        for (final File file : filesToProcess) {
-            final String shortFilename = FilenameUtils.removeExtension(file.getName());
-            final String fullPath = '/' + FilenameUtils.getPath(file.getPath());
-            final String inputApkFileName = '/' + FilenameUtils.getPath(file.getPath()) + file.getName();
-            final FSEngine fsengine = initializeHornDroid(shortFilename, fullPath);
+    private Report processFile(final File file, final Options options, SourcesSinks sourcesSinks, Stubs stubs,
+                               final Set<Integer> allowed, final AnalysisJob job) throws ApkAnalysisException {
+        final String shortFilename = FilenameUtils.removeExtension(file.getName());
+        final String fullPath = '/' + FilenameUtils.getPath(file.getPath());
+        final String inputApkFileName = '/' + FilenameUtils.getPath(file.getPath()) + file.getName();
+        final Options apkOptions = options.copy();
+        apkOptions.outputDirectory = fullPath + shortFilename;
+
+        final File apkFile = new File(inputApkFileName);
+        confirmApkExistence(inputApkFileName, apkFile);
+        final ReportSink reportSink = openReportSink(apkOptions, file);
+        try {
+            final ResultCache cache = getResultCache();
+            String cacheKey = null;
+            if (cache != null) {
+                try {
+                    cacheKey = cache.key(apkFile, apkOptions);
+                } catch (IOException e) {
+                    throw new ApkAnalysisException("Error: Can't read " + inputApkFileName, e);
+                }
+                final Report cached = cache.get(cacheKey);
+                if (cached != null) {
+                    LOGGER.info("Report of " + file.getName() + " found in the cache");
+                    cached.setTag(file.getName());
+                    if (reportSink != null) {
+                        streamReport(cached, reportSink);
+                    }
+                    return cached;
+                }
+            }
 
-            final ExecutorService instructionExecutorService = Executors.newCachedThreadPool();
-            Analysis analysis = new Analysis(fsengine, sourcesSinks, hornDroidOptions, instructionExecutorService, stubs);
+            final Analysis analysis = generate(file, apkOptions, sourcesSinks, stubs, allowed, job);
+            final FSEngine fsengine = analysis.getFSEngine();
+            fsengine.setReportSink(reportSink);
+            try {
+                final Report report = executeQueries(fsengine, analysis, file.getName());
+                if (cache != null) {
+                    cache.put(cacheKey, report);
+                }
+                return report;
+            } finally {
+                fsengine.dispose();
+            }
+        } finally {
+            if (reportSink != null) {
+                try {
+                    reportSink.close();
+                } catch (IOException e) {
+                    LOGGER.error("Error: Can't close the report stream of " + file.getName(), e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Sink streaming the report of the apk file to <streamDirectory>/<apk file name>.ndjson, null when the
+     * report is not streamed or the file can't be created
+     */
+    private ReportSink openReportSink(final Options apkOptions, final File file) {
+        if (apkOptions.streamDirectory.isEmpty()) {
+            return null;
+        }
+        final File streamFile = new File(apkOptions.streamDirectory, file.getName() + ".ndjson");
+        try {
+            return new NdjsonReportSink(streamFile);
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't create the report stream " + streamFile + ", continuing without it", e);
+            return null;
+        }
+    }
+
+    private static void streamReport(final Report report, final ReportSink reportSink) {
+        final List<ReportEntry> reportEntries = report.getReportEntries();
+        reportSink.begin(report.getTag(), report.getNumberOfQueries());
+        for (int i = 0; i < reportEntries.size(); i++) {
+            reportSink.entry(i, reportEntries.get(i));
+        }
+        reportSink.end(report);
+    }
+
+    /*
+     * Generate the Horn clauses of one apk file, the queries are not run
+     */
+    private Analysis generate(final File file, final Options apkOptions, SourcesSinks sourcesSinks, Stubs stubs,
+                              final Set<Integer> allowed, final AnalysisJob job) throws ApkAnalysisException {
+        final String inputApkFileName = '/' + FilenameUtils.getPath(file.getPath()) + file.getName();
+        final File apkFile = new File(inputApkFileName);
+        final FSEngine fsengine = initializeHornDroid(apkOptions);
+        if (job != null) {
+            job.attach(fsengine);
+        }
+
+        final ExecutorService instructionExecutorService =
+                Executors.newFixedThreadPool(Math.max(1, apkOptions.generationThreads));
+        try {
+            Analysis analysis = new Analysis(fsengine, sourcesSinks, apkOptions, instructionExecutorService, stubs);
             LOGGER.info("Analysing " + file.getName());
 
-            File apkFile = new File(inputApkFileName);
-            confirmApkExistence(inputApkFileName, apkFile);
+            long phaseStart = System.nanoTime();
             DexBackedDexFile dexFile = getDexBackedDexFile(apkFile);
-            parseEntryPoints(inputApkFileName,analysis);
-            parseCallBacksAndDisabledActivities(file, inputApkFileName, analysis);
+            analysis.recordPhase("dex_load", System.nanoTime() - phaseStart);
+            parseEntryPoints(inputApkFileName, analysis);
+            parseCallBacksAndDisabledActivities(file, inputApkFileName, analysis, apkOptions.outputDirectory);
+            if (fsengine.isCancelled()) {
+                throw new ApkAnalysisException("Analysis of " + file.getName() + " cancelled");
+            }
+            phaseStart = System.nanoTime();
             List<? extends ClassDef> classDefs = sortClasses(dexFile);
+            analysis.recordPhase("sort", System.nanoTime() - phaseStart);
             generateHornClauses(analysis, classDefs, allowed);
             awaitThreadTermination(instructionExecutorService);
-            Report report = executeQueries(fsengine, analysis,file.getName());
-            reports.add(report);
+            return analysis;
+        } catch (ApkAnalysisException | RuntimeException e) {
+            fsengine.dispose();
+            throw e;
+        } finally {
+            instructionExecutorService.shutdownNow();
+        }
+    }
 
+    /*
+     * Analyse one apk file, a failure is logged and does not stop the analysis of the other files
+     */
+    private Report processFileSafely(final File file, SourcesSinks sourcesSinks, Stubs stubs,
+                                     final Set<Integer> allowed) {
+        try {
+            return processFile(file, hornDroidOptions, sourcesSinks, stubs, allowed, null);
+        } catch (ApkAnalysisException | RuntimeException e) {
+            LOGGER.error("Analysis of " + file.getName() + " failed", e);
+            return null;
+        }
+    }
+
+    private List<Report> processFiles(final SourcesSinks sourcesSinks, LinkedHashSet<File> filesToProcess,
+                                      final Set<Integer> allowed) {
+        final Stubs stubs = getStubs();
+        final List<Report> reports = new ArrayList<>();
+        if (hornDroidOptions.batchSize <= 1) {
+            for (final File file : filesToProcess) {
+                final Report report = processFileSafely(file, sourcesSinks, stubs, allowed);
+                if (report != null) {
+                    reports.add(report);
+                }
+            }
+        } else {
+            reports.addAll(processBatch(sourcesSinks, stubs, filesToProcess, allowed));
+        }
+        if (reports.size() < filesToProcess.size()) {
+            LOGGER.warn("Analysed " + reports.size() + " of " + filesToProcess.size() + " apk files");
+        }
+        return reports;
+    }
+
+    /*
+     * Analyse up to batchSize apk files at once, each with its own FSEngine and Analysis. Sources and sinks and
+     * the stubs are read only and shared. When batchMemory is set, an analysis only starts while the heap stays
+     * below that many megabytes, or when no other analysis is running. Reports are returned in input order.
+     */
+    private List<Report> processBatch(final SourcesSinks sourcesSinks, final Stubs stubs,
+                                      LinkedHashSet<File> filesToProcess, final Set<Integer> allowed) {
+        final int batchSize = hornDroidOptions.batchSize;
+        final int threadsPerApk = Math.max(hornDroidOptions.generationThreads, hornDroidOptions.solverThreads);
+        final int cores = Runtime.getRuntime().availableProcessors();
+        if (batchSize * threadsPerApk > cores) {
+            LOGGER.warn(batchSize + " apk files with " + threadsPerApk + " thread(s) each exceed the " + cores
+                    + " available processors");
+        }
+        final AtomicInteger running = new AtomicInteger(0);
+        final Object memoryLock = new Object();
+        final ExecutorService batchExecutorService = Executors.newFixedThreadPool(batchSize);
+        final List<Future<Report>> futures = new ArrayList<>();
+        for (final File file : filesToProcess) {
+            // collectDataFromApk adds the launcher activities of the apk, each analysis gets its own copy
+            final Set<Integer> fileAllowed = new HashSet<>(allowed);
+            futures.add(batchExecutorService.submit(new Callable<Report>() {
+                @Override
+                public Report call() throws InterruptedException {
+                    synchronized (memoryLock) {
+                        while (running.get() > 0 && overMemoryBudget()) {
+                            memoryLock.wait(1000);
+                        }
+                        running.incrementAndGet();
+                    }
+                    try {
+                        return processFileSafely(file, sourcesSinks, stubs, fileAllowed);
+                    } finally {
+                        synchronized (memoryLock) {
+                            running.decrementAndGet();
+                            memoryLock.notifyAll();
+                        }
+                    }
+                }
+            }));
+        }
+        final List<Report> reports = new ArrayList<>();
+        final Iterator<File> files = filesToProcess.iterator();
+        try {
+            for (Future<Report> future : futures) {
+                final File file = files.next();
+                try {
+                    final Report report = future.get();
+                    if (report != null) {
+                        reports.add(report);
+                    }
+                } catch (ExecutionException e) {
+                    // an Error such as OutOfMemoryError, the other apk files are still reported
+                    LOGGER.error("Analysis of " + file.getName() + " failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("HorndroidExecutor Failed: batch interrupted");
+        } finally {
+            batchExecutorService.shutdownNow();
         }
         return reports;
     }
 
+    private boolean overMemoryBudget() {
+        if (hornDroidOptions.batchMemory <= 0) {
+            return false;
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        final long usedMegabytes = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        return usedMegabytes > hornDroidOptions.batchMemory;
+    }
+
     /**
      * Executes the horndroid tool with the provided options and returns a report for each input apk
      *
      * @return List<Report> reports
      */
     public List<Report> execute() {
-        final SourcesSinks sourcesSinks = getSourcesAndSinks();
+        final SourcesSinks sourcesSinks = getSharedSourcesSinks();
         LinkedHashSet<File> filesToProcess = getFilesToProcess();
         final Set<Integer> allowed = getAllowedClasses();
         return processFiles(sourcesSinks, filesToProcess, allowed);
     }
+
+    /**
+     * Loads the state shared by the analyses: the sources and sinks, the entry points and callbacks, the stubs
+     * and the Z3 native library. The apk files of the input path, if any, are then analysed once without
+     * reports so that the analysis and the solver are compiled by the JIT before the first real analysis.
+     */
+    public void preload() {
+        final long startTime = System.nanoTime();
+        final SourcesSinks sourcesSinks = getSharedSourcesSinks();
+        sourcesSinks.preload();
+        try {
+            SourceSinkParser.preload();
+        } catch (IOException e) {
+            throw new RuntimeException("HorndroidExecutor Failed: can't read the entry points or callbacks: " +
+                    e.getMessage());
+        }
+        final Stubs stubs = getStubs();
+        initializeHornDroid(hornDroidOptions).dispose();
+        LOGGER.info("Shared state loaded in " + Long.toString((System.nanoTime() - startTime) /
+                MILLISECONDS_IN_SECOND_CONSTANT) + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        if (inputApkPath.isEmpty()) {
+            return;
+        }
+        final Options warmUpOptions = hornDroidOptions.copy();
+        warmUpOptions.streamDirectory = "";
+        for (File file : getFilesToProcess()) {
+            final long warmUpStart = System.nanoTime();
+            final Options apkOptions = warmUpOptions.copy();
+            apkOptions.outputDirectory = '/' + FilenameUtils.getPath(file.getPath()) +
+                    FilenameUtils.removeExtension(file.getName());
+            try {
+                final Analysis analysis = generate(file, apkOptions, sourcesSinks, stubs, getAllowedClasses(), null);
+                final FSEngine fsengine = analysis.getFSEngine();
+                try {
+                    fsengine.executeAllQueries(analysis, file.getName());
+                } finally {
+                    fsengine.dispose();
+                }
+                LOGGER.info("Warmed up on " + file.getName() + " in " + Long.toString((System.nanoTime() -
+                        warmUpStart) / MILLISECONDS_IN_SECOND_CONSTANT) + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+            } catch (ApkAnalysisException | RuntimeException e) {
+                LOGGER.warn("Warm-up on " + file.getName() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Analyses a single apk file with the provided options, the sources and sinks and the stubs
+     * are kept between calls. Used by the analysis server.
+     *
+     * @return Report report
+     */
+    public Report analyse(File apkFile, Options options, AnalysisJob job) throws ApkAnalysisException {
+        return processFile(apkFile.getAbsoluteFile(), options, getSharedSourcesSinks(), getStubs(),
+                getAllowedClasses(), job);
+    }
+
+    /**
+     * Auto-tuner: generates the Horn clauses of every input apk once, solves them with every candidate
+     * solver profile and writes the profile with the fewest undecided queries and the lowest total solving
+     * time to output. The candidates are the portfolio configurations when given, otherwise a grid of
+     * engines and relation representations, all on top of the current solver profile.
+     *
+     * @return SolverConfiguration the best profile
+     */
+    public SolverConfiguration tune(File output) {
+        final SolverConfiguration base = SolverConfiguration.load(hornDroidOptions.solverProfile);
+        final List<SolverConfiguration> candidates = new ArrayList<>();
+        final List<SolverConfiguration> specs = hornDroidOptions.portfolio.isEmpty() ?
+                SolverConfiguration.tuningGrid() : SolverConfiguration.parseList(hornDroidOptions.portfolio);
+        for (SolverConfiguration spec : specs) {
+            candidates.add(base.with(spec));
+        }
+        final ProfileTuner tuner = new ProfileTuner(candidates);
+        final Options tuneOptions = hornDroidOptions.copy();
+        // every query is solved with a single profile at a time
+        tuneOptions.portfolio = "";
+        tuneOptions.tillFirstLeak = false;
+        final SourcesSinks sourcesSinks = getSharedSourcesSinks();
+        final Stubs stubs = getStubs();
+        final Set<Integer> allowed = getAllowedClasses();
+        for (File file : getFilesToProcess()) {
+            final Options apkOptions = tuneOptions.copy();
+            apkOptions.outputDirectory = '/' + FilenameUtils.getPath(file.getPath()) +
+                    FilenameUtils.removeExtension(file.getName());
+            try {
+                confirmApkExistence(file.getPath(), file);
+                final Analysis analysis = generate(file, apkOptions, sourcesSinks, stubs, allowed, null);
+                final FSEngine fsengine = analysis.getFSEngine();
+                final List<Report> reports = new ArrayList<>();
+                final long[] times = new long[candidates.size()];
+                try {
+                    for (int i = 0; i < candidates.size(); i++) {
+                        fsengine.setSolverProfile(candidates.get(i));
+                        final long startTime = System.nanoTime();
+                        reports.add(fsengine.executeAllQueries(analysis, file.getName()));
+                        times[i] = System.nanoTime() - startTime;
+                        LOGGER.info("Profile '" + candidates.get(i).getName() + "' solved " + file.getName() +
+                                " in " + Long.toString(times[i] / MILLISECONDS_IN_SECOND_CONSTANT) +
+                                TIME_DISPLAY_MILLISECONDS_CONSTANT);
+                    }
+                } finally {
+                    fsengine.dispose();
+                }
+                tuner.record(reports, times);
+            } catch (ApkAnalysisException | RuntimeException e) {
+                LOGGER.error("Tuning on " + file.getName() + " failed", e);
+            }
+        }
+        if (tuner.getSamples() == 0) {
+            throw new RuntimeException("HorndroidExecutor Failed: no apk file could be used for tuning");
+        }
+        final SolverConfiguration best = tuner.best();
+        for (String line : tuner.summary()) {
+            LOGGER.info(line);
+        }
+        try {
+            best.store(output, tuner.summary());
+        } catch (IOException e) {
+            throw new RuntimeException("HorndroidExecutor Failed: can't write " + output + ": " + e.getMessage());
+        }
+        LOGGER.info("Solver profile written to " + output);
+        return best;
+    }
+
+    private synchronized SourcesSinks getSharedSourcesSinks() {
+        if (sourcesSinks == null) {
+            sourcesSinks = getSourcesAndSinks();
+        }
+        return sourcesSinks;
+    }
+
+    /*
+     * The report cache, or null when no cache directory is set or it can't be used
+     */
+    private synchronized ResultCache getResultCache() {
+        if (!resultCacheOpened) {
+            resultCacheOpened = true;
+            if (!hornDroidOptions.cacheDirectory.isEmpty()) {
+                try {
+                    resultCache = new ResultCache(new File(hornDroidOptions.cacheDirectory),
+                            hornDroidOptions.cacheSize * 1024L * 1024L,
+                            new File("bin/SourcesAndSinks.txt"), new File("bin/EntryPoints.txt"),
+                            new File("bin/Callbacks.txt"));
+                } catch (IOException e) {
+                    LOGGER.error("Error: Can't use the report cache, continuing without it", e);
+                }
+            }
+        }
+        return resultCache;
+    }
+
+    private synchronized Stubs getStubs() {
+        if (stubs == null) {
+            stubs = new Stubs(hornDroidOptions);
+        }
+        return stubs;
+    }
 }
 
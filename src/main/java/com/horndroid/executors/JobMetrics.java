@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.executors;
+
+import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.horndroid.printers.MetricsPrinter.PREFIX;
+import static com.horndroid.printers.MetricsPrinter.escapeLabel;
+import static com.horndroid.printers.MetricsPrinter.header;
+
+/**
+ * Running totals of the jobs of the analysis server, updated once per finished job so that the metrics do not
+ * depend on the reports kept in memory. Written as Prometheus counters.
+ */
+final class JobMetrics {
+
+    private static final String COUNTER = "counter";
+
+    private final Map<String, Long> jobs = new TreeMap<>();
+    private final Map<String, Long> phaseMilliseconds = new TreeMap<>();
+    private final Map<String, Long> queries = new TreeMap<>();
+    private final Map<String, Long> solveMilliseconds = new TreeMap<>();
+    private long prunedQueries = 0;
+    private long rules = 0;
+    private long relations = 0;
+    private long loadedRules = 0;
+
+    /*
+     * Account a job that reached its final state, report is null unless the job is done
+     */
+    synchronized void record(AnalysisJob.State state, Report report) {
+        add(jobs, state.toString(), 1);
+        if (report == null) return;
+        for (Map.Entry<String, Long> phase : report.getPhaseMilliseconds().entrySet()) {
+            add(phaseMilliseconds, phase.getKey(), phase.getValue());
+        }
+        for (ReportEntry reportEntry : report.getReportEntries()) {
+            add(queries, reportEntry.getResult(), 1);
+            add(solveMilliseconds, reportEntry.getResult(), reportEntry.getSolveMilliseconds());
+            loadedRules += reportEntry.getLoadedRules();
+        }
+        prunedQueries += report.getNumberOfPrunedQueries();
+        rules += report.getNumberOfRules();
+        relations += report.getNumberOfRelations();
+    }
+
+    synchronized void writePrometheus(Writer writer) throws IOException {
+        header(writer, "jobs_total", "Number of finished jobs by final state", COUNTER);
+        samples(writer, "jobs_total", "state", jobs);
+        header(writer, "phase_milliseconds_total", "Time spent in each phase by the finished jobs",
+                COUNTER);
+        samples(writer, "phase_milliseconds_total", "phase", phaseMilliseconds);
+        header(writer, "queries_total", "Number of solved queries by result", COUNTER);
+        samples(writer, "queries_total", "result", queries);
+        header(writer, "query_solve_milliseconds_total", "Time spent solving queries by result",
+                COUNTER);
+        samples(writer, "query_solve_milliseconds_total", "result", solveMilliseconds);
+        header(writer, "pruned_queries_total", "Number of queries resolved without solving", COUNTER);
+        writer.write(PREFIX + "pruned_queries_total " + prunedQueries + "\n");
+        header(writer, "rules_total", "Number of Horn clauses generated", COUNTER);
+        writer.write(PREFIX + "rules_total " + rules + "\n");
+        header(writer, "relations_total", "Number of relations declared", COUNTER);
+        writer.write(PREFIX + "relations_total " + relations + "\n");
+        header(writer, "query_loaded_rules_total", "Number of rules loaded to solve the queries",
+                COUNTER);
+        writer.write(PREFIX + "query_loaded_rules_total " + loadedRules + "\n");
+    }
+
+    private static void add(Map<String, Long> totals, String key, long value) {
+        final Long total = totals.get(key);
+        totals.put(key, total == null ? value : total + value);
+    }
+
+    private static void samples(Writer writer, String name, String label, Map<String, Long> totals)
+            throws IOException {
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            writer.write(PREFIX + name + "{" + label + "=\"" + escapeLabel(total.getKey()) + "\"} " + total.getValue() +
+                    "\n");
+        }
+    }
+}
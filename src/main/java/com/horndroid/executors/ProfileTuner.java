@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.executors;
+
+import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+import com.horndroid.z3.FSEngine;
+import com.horndroid.z3.SolverConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.horndroid.constants.TimeConstants.MILLISECONDS_IN_SECOND_CONSTANT;
+import static com.horndroid.constants.TimeConstants.TIME_DISPLAY_MILLISECONDS_CONSTANT;
+
+/*
+ * Scores of the candidate solver profiles over a sample of apk files. The best profile leaves the fewest
+ * queries undecided (UNKNOWN or TIMEOUT), ties are broken by the total solving time.
+ */
+class ProfileTuner {
+    private final List<SolverConfiguration> candidates;
+    private final long[] solveTimes;
+    private final int[] undecided;
+    private int samples = 0;
+
+    ProfileTuner(final List<SolverConfiguration> candidates) {
+        if (candidates.isEmpty()) {
+            throw new RuntimeException("ProfileTuner Failed: no candidate profile");
+        }
+        this.candidates = candidates;
+        this.solveTimes = new long[candidates.size()];
+        this.undecided = new int[candidates.size()];
+    }
+
+    List<SolverConfiguration> getCandidates() {
+        return candidates;
+    }
+
+    /*
+     * Scores of one apk file, one report and solving time in nanoseconds per candidate
+     */
+    void record(final List<Report> reports, final long[] times) {
+        for (int i = 0; i < candidates.size(); i++) {
+            solveTimes[i] += times[i];
+            for (ReportEntry entry : reports.get(i).getReportEntries()) {
+                if (entry.getResult().equals(FSEngine.UNKNOWN) || entry.getResult().equals(FSEngine.TIMEOUT)) {
+                    undecided[i]++;
+                }
+            }
+        }
+        samples++;
+    }
+
+    int getSamples() {
+        return samples;
+    }
+
+    SolverConfiguration best() {
+        int best = 0;
+        for (int i = 1; i < candidates.size(); i++) {
+            if (undecided[i] < undecided[best] ||
+                    (undecided[i] == undecided[best] && solveTimes[i] < solveTimes[best])) {
+                best = i;
+            }
+        }
+        return candidates.get(best);
+    }
+
+    /*
+     * One line per candidate, written as comments in the tuned profile
+     */
+    List<String> summary() {
+        final List<String> lines = new ArrayList<>();
+        lines.add("Solver profile tuned on " + samples + " apk files, best: " + best().getName());
+        for (int i = 0; i < candidates.size(); i++) {
+            lines.add(candidates.get(i).getName() + ": " + undecided[i] + " undecided queries, " +
+                    Long.toString(solveTimes[i] / MILLISECONDS_IN_SECOND_CONSTANT) + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        }
+        return lines;
+    }
+}
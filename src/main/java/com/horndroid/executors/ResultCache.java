@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.horndroid.Options;
+import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+import com.horndroid.z3.FSEngine;
+import com.horndroid.z3.SolverConfiguration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk cache of finished reports, keyed by the SHA-256 of the apk file, the options that change the
+ * result and a fingerprint of the sources/sinks, entry points and callbacks lists. Every report is one file;
+ * a hit refreshes its modification time, and the least recently used files are removed once the cache
+ * grows over its size limit. Files are written aside and moved in place, so concurrent workers and
+ * processes only ever read complete reports.
+ */
+public class ResultCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(ResultCache.class);
+    private static final String SUFFIX = ".report.json";
+    private final File directory;
+    private final long maxBytes;
+    private final String inputsFingerprint;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ResultCache(File directory, long maxBytes, File... inputs) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create the cache directory " + directory);
+        }
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (File input : inputs) {
+            hasher.putString(input.getName(), StandardCharsets.UTF_8);
+            if (input.isFile()) {
+                hasher.putBytes(Files.hash(input, Hashing.sha256()).asBytes());
+            }
+        }
+        this.inputsFingerprint = hasher.hash().toString();
+    }
+
+    /*
+     * Cache key of an apk file analysed with the given options
+     */
+    public String key(File apkFile, Options options) throws IOException {
+        return Hashing.sha256().newHasher()
+                .putString(Files.hash(apkFile, Hashing.sha256()).toString(), StandardCharsets.UTF_8)
+                .putString(inputsFingerprint, StandardCharsets.UTF_8)
+                .putString(optionsFingerprint(options), StandardCharsets.UTF_8)
+                .hash().toString();
+    }
+
+    /*
+     * The options that change the report, its results as well as the timings, rule counts and solver statistics
+     * it carries; time limits and output locations do not. The solver profile is keyed by its parameters, so
+     * that editing a profile file invalidates the reports solved with it.
+     */
+    private static String optionsFingerprint(Options options) {
+        return "n=" + options.bitvectorSize + ";i=" + options.nfsanalysis + ";s=" + options.sensIfHasSink +
+                ";w=" + options.arrays + ";p=" + options.pointersMerge + ";f=" + options.filterClasses +
+                ";u=" + options.filterClassesSound + ";g=" + options.nopUnknown + ";m=" + options.oldUnknown +
+                ";q=" + options.verboseResults + ";r=" + options.maxQueries + ";l=" + options.tillFirstLeak +
+                ";t=" + options.stubs + ";d=" + (options.debug ? options.debugInt : 0) + ";H=" + options.heapSlicing +
+                ";A=" + options.heapArrays + ";R=" + options.liveRegisters + ";B=" + options.largeBlocks +
+                ";P=" + options.portfolio + ";S=" + SolverConfiguration.load(options.solverProfile).getParameters() +
+                ";G=" + options.groupQueries + ";k=" + options.querySession + ";j=" + options.solverThreads +
+                ";slice=" + options.ruleSlicing + ";precheck=" + options.reachabilityPrecheck;
+    }
+
+    /*
+     * Return the cached report or null
+     */
+    public Report get(String key) {
+        final File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final Report report = mapper.readValue(file, Report.class);
+            file.setLastModified(System.currentTimeMillis());
+            return report;
+        } catch (IOException e) {
+            // removed by an eviction in the meantime, or unreadable
+            LOGGER.debug("Can't read cached report " + file, e);
+            return null;
+        }
+    }
+
+    /*
+     * Store a report, reports with queries stopped by a time limit or unknown results are not cached
+     */
+    public void put(String key, Report report) {
+        for (ReportEntry entry : report.getReportEntries()) {
+            if (entry.getResult().equals(FSEngine.TIMEOUT) || entry.getResult().equals(FSEngine.UNKNOWN)) {
+                return;
+            }
+        }
+        try {
+            final File tmpFile = File.createTempFile(key + "-", ".tmp", directory);
+            try {
+                mapper.writeValue(tmpFile, report);
+                java.nio.file.Files.move(tmpFile.toPath(), new File(directory, key + SUFFIX).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                if (tmpFile.exists()) {
+                    tmpFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Can't write the report to the cache", e);
+            return;
+        }
+        evict();
+    }
+
+    /*
+     * Remove the least recently used reports until the cache fits in its size limit
+     */
+    private synchronized void evict() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<File> reports = new ArrayList<>();
+        long size = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                reports.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= maxBytes) {
+            return;
+        }
+        final File[] byAge = reports.toArray(new File[reports.size()]);
+        final long[] lastModified = new long[byAge.length];
+        for (int i = 0; i < byAge.length; i++) {
+            lastModified[i] = byAge[i].lastModified();
+        }
+        final Integer[] order = new Integer[byAge.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+        for (Integer i : order) {
+            if (size <= maxBytes) {
+                break;
+            }
+            final long length = byAge[i].length();
+            if (byAge[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+}
@@ -25,7 +25,9 @@
 package com.horndroid.model;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a report with the analysis details
@@ -35,6 +37,11 @@ public class Report {
 
     private String tag;
     private int numberOfQueries;
+    private int numberOfPrunedQueries;
+    private int numberOfRules;
+    private int numberOfRelations;
+    private int localHeapSize;
+    private Map<String, Long> phaseMilliseconds = new LinkedHashMap<>();
     private List<ReportEntry> reportEntries = new ArrayList<>();
 
     public List<ReportEntry> getReportEntries() {
@@ -58,6 +65,53 @@ public class Report {
         this.numberOfQueries = numberOfQueries;
     }
 
+    /*
+     * Number of queries resolved as NO LEAK without solving, because they need an underivable relation
+     */
+    public int getNumberOfPrunedQueries() {
+        return numberOfPrunedQueries;
+    }
+
+    public void setNumberOfPrunedQueries(int numberOfPrunedQueries) {
+        this.numberOfPrunedQueries = numberOfPrunedQueries;
+    }
+
+    public int getNumberOfRules() {
+        return numberOfRules;
+    }
+
+    public void setNumberOfRules(int numberOfRules) {
+        this.numberOfRules = numberOfRules;
+    }
+
+    public int getNumberOfRelations() {
+        return numberOfRelations;
+    }
+
+    public void setNumberOfRelations(int numberOfRelations) {
+        this.numberOfRelations = numberOfRelations;
+    }
+
+    public int getLocalHeapSize() {
+        return localHeapSize;
+    }
+
+    public void setLocalHeapSize(int localHeapSize) {
+        this.localHeapSize = localHeapSize;
+    }
+
+    /*
+     * Milliseconds spent in each phase of the analysis: dex loading, sorting, data collection,
+     * fetching the unknown methods, clause generation and solving
+     */
+    public Map<String, Long> getPhaseMilliseconds() {
+        return new LinkedHashMap<>(phaseMilliseconds);
+    }
+
+    public void setPhaseMilliseconds(Map<String, Long> phaseMilliseconds) {
+        this.phaseMilliseconds = new LinkedHashMap<>(phaseMilliseconds);
+    }
+
     public String getTag() {
         return tag;
     }
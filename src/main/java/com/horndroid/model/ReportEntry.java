@@ -24,6 +24,10 @@
 
 package com.horndroid.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
 /**
  * Represents one entry in a report
  *
@@ -33,6 +37,17 @@ public class ReportEntry {
     private String description;
     private String result;
     private boolean isVerbose;
+    // portfolio configuration that answered the query first, null when no portfolio was used
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String solverConfiguration;
+    // time spent solving the query, 0 when it was not solved on its own
+    private long solveMilliseconds;
+    // number of rules loaded in the fixedpoint the query was solved with
+    private int loadedRules;
+    // Z3 statistics of the fixedpoint the query was solved with, null when it was not solved on its own
+    // fixedpoint or in session mode
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Double> solverStatistics;
 
     public ReportEntry(String description, String result, boolean isVerbose) {
         this.description = description;
@@ -69,4 +84,36 @@ public class ReportEntry {
     public void setVerbose(boolean verbose) {
         isVerbose = verbose;
     }
+
+    public String getSolverConfiguration() {
+        return solverConfiguration;
+    }
+
+    public void setSolverConfiguration(String solverConfiguration) {
+        this.solverConfiguration = solverConfiguration;
+    }
+
+    public long getSolveMilliseconds() {
+        return solveMilliseconds;
+    }
+
+    public void setSolveMilliseconds(long solveMilliseconds) {
+        this.solveMilliseconds = solveMilliseconds;
+    }
+
+    public int getLoadedRules() {
+        return loadedRules;
+    }
+
+    public void setLoadedRules(int loadedRules) {
+        this.loadedRules = loadedRules;
+    }
+
+    public Map<String, Double> getSolverStatistics() {
+        return solverStatistics;
+    }
+
+    public void setSolverStatistics(Map<String, Double> solverStatistics) {
+        this.solverStatistics = solverStatistics;
+    }
 }
@@ -49,4 +49,7 @@ public class ArrayData {
     public int getM(){
         return m;
     }
+    public int getCodeAddress(){
+        return codeAddress;
+    }
 }
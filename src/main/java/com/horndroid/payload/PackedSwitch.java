@@ -56,4 +56,7 @@ public class PackedSwitch {
     public int getM(){
         return m;
     }
+    public int getCodeAddress(){
+        return codeAddress;
+    }
 }
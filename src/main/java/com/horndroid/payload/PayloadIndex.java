@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.payload;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.horndroid.util.CMPair;
+
+/*
+ * Array data and switch payloads, indexed by class, method and payload address
+ */
+public class PayloadIndex {
+    final private Map<PayloadKey, ArrayData> arrayData;
+    final private Map<PayloadKey, PackedSwitch> packedSwitches;
+    final private Map<PayloadKey, SparseSwitch> sparseSwitches;
+
+    public PayloadIndex(){
+        this.arrayData = new ConcurrentHashMap<PayloadKey, ArrayData>();
+        this.packedSwitches = new ConcurrentHashMap<PayloadKey, PackedSwitch>();
+        this.sparseSwitches = new ConcurrentHashMap<PayloadKey, SparseSwitch>();
+    }
+
+    public void add(final ArrayData ad){
+        arrayData.put(new PayloadKey(ad.getC(), ad.getM(), ad.getCodeAddress()), ad);
+    }
+    public void add(final PackedSwitch ps){
+        packedSwitches.put(new PayloadKey(ps.getC(), ps.getM(), ps.getCodeAddress()), ps);
+    }
+    public void add(final SparseSwitch ss){
+        sparseSwitches.put(new PayloadKey(ss.getC(), ss.getM(), ss.getCodeAddress()), ss);
+    }
+
+    /*
+     * Return the payload at codeAddress in method m of class c, null if there is none
+     */
+    public ArrayData getArrayData(final int c, final int m, final int codeAddress){
+        return arrayData.get(new PayloadKey(c, m, codeAddress));
+    }
+    public PackedSwitch getPackedSwitch(final int c, final int m, final int codeAddress){
+        return packedSwitches.get(new PayloadKey(c, m, codeAddress));
+    }
+    public SparseSwitch getSparseSwitch(final int c, final int m, final int codeAddress){
+        return sparseSwitches.get(new PayloadKey(c, m, codeAddress));
+    }
+
+    public Collection<ArrayData> getArrayData(){
+        return arrayData.values();
+    }
+    public Collection<PackedSwitch> getPackedSwitches(){
+        return packedSwitches.values();
+    }
+    public Collection<SparseSwitch> getSparseSwitches(){
+        return sparseSwitches.values();
+    }
+
+    /*
+     * Add the payloads of other that belong to one of the methods in processCM
+     */
+    public void addAll(final PayloadIndex other, final Set<CMPair> processCM){
+        for (ArrayData ad : other.getArrayData()) {
+            if (processCM.contains(new CMPair(ad.getC(), ad.getM()))) {
+                add(ad);
+            }
+        }
+        for (PackedSwitch ps : other.getPackedSwitches()) {
+            if (processCM.contains(new CMPair(ps.getC(), ps.getM()))) {
+                add(ps);
+            }
+        }
+        for (SparseSwitch ss : other.getSparseSwitches()) {
+            if (processCM.contains(new CMPair(ss.getC(), ss.getM()))) {
+                add(ss);
+            }
+        }
+    }
+}
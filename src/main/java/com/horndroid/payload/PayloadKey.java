@@ -0,0 +1,50 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.payload;
+
+/*
+ * Key of a payload: class and method packed in a long, and the payload address
+ */
+public final class PayloadKey {
+    final private long cm;
+    final private int codeAddress;
+    public PayloadKey(final int c, final int m, final int codeAddress){
+        this.cm = ((long) c << 32) | (m & 0xffffffffL);
+        this.codeAddress = codeAddress;
+    }
+    @Override
+    public int hashCode() {
+        return 31 * (int) (cm ^ (cm >>> 32)) + codeAddress;
+    }
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PayloadKey))
+            return false;
+        if (obj == this)
+            return true;
+        PayloadKey p = (PayloadKey) obj;
+        return (cm == p.cm) && (codeAddress == p.codeAddress);
+    }
+}
@@ -49,4 +49,7 @@ public class SparseSwitch {
     public int getM(){
         return m;
     }
+    public int getCodeAddress(){
+        return codeAddress;
+    }
 }
@@ -38,6 +38,7 @@ public final class DefaultReportPrinter extends ReportPrinter {
         String s = "";
         s += report.getTag() + " :\n";
         s += "Number of queries :" + report.getNumberOfQueries() + "\n";
+        s += "Number of unreachable queries (not solved) :" + report.getNumberOfPrunedQueries() + "\n";
         final List<ReportEntry> reportEntries = report.getReportEntries();
         for (ReportEntry reportEntry : reportEntries) {
             s += i + ": ";
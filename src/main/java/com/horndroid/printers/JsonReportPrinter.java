@@ -25,11 +25,15 @@
 package com.horndroid.printers;
 
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.horndroid.exceptions.ReportWritingException;
 import com.horndroid.model.Report;
 
+import java.io.IOException;
+import java.io.Writer;
+
 class JsonReportPrinter extends ReportPrinter {
 
 
@@ -45,4 +49,18 @@ class JsonReportPrinter extends ReportPrinter {
         }
         return json;
     }
+
+    /*
+     * Serialize the report straight to the writer, without building the whole json string first
+     */
+    @Override
+    protected void writeReport(Report report, Writer writer) throws ReportWritingException, IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        try {
+            mapper.writeValue(writer, report);
+        } catch (JsonProcessingException e) {
+            throw new ReportWritingException(e.getMessage());
+        }
+    }
 }
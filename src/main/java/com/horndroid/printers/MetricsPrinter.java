@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.printers;
+
+import com.horndroid.exceptions.ReportWritingException;
+import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports the performance metrics of reports: phase timings, rule, relation and local heap counts and the
+ * solving time and Z3 statistics of each query, as Prometheus text exposition format or as CSV with one metric per line
+ */
+public final class MetricsPrinter {
+
+    public static final String PREFIX = "horndroid_";
+    // metrics of a whole apk, in the order of apkValues
+    private static final String[] APK_METRICS = {"queries", "pruned_queries", "rules", "relations",
+            "local_heap_size"};
+    private static final String[] APK_METRICS_HELP = {"Number of queries",
+            "Number of queries resolved without solving", "Number of Horn clauses", "Number of relations",
+            "Size of the local heap abstraction"};
+
+    private MetricsPrinter() {
+
+    }
+
+    /*
+     * Write the metrics to filename, as CSV when it ends with .csv and in the Prometheus text format otherwise
+     */
+    public static void writeMetricsToFile(List<Report> reports, String filename) throws ReportWritingException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                FileUtils.openOutputStream(new File(filename)), StandardCharsets.UTF_8))) {
+            if (filename.endsWith(".csv")) {
+                writeCsv(reports, writer);
+            } else {
+                writePrometheus(reports, writer);
+            }
+        } catch (IOException e) {
+            throw new ReportWritingException("Problem writing metrics to file", e);
+        }
+    }
+
+    public static void writePrometheus(List<Report> reports, Writer writer) throws IOException {
+        header(writer, "phase_milliseconds", "Time spent in each phase of the analysis");
+        for (Report report : reports) {
+            for (Map.Entry<String, Long> phase : report.getPhaseMilliseconds().entrySet()) {
+                sample(writer, "phase_milliseconds", labels(report, "phase", phase.getKey()), phase.getValue());
+            }
+        }
+        for (int m = 0; m < APK_METRICS.length; m++) {
+            header(writer, APK_METRICS[m], APK_METRICS_HELP[m]);
+            for (Report report : reports) {
+                sample(writer, APK_METRICS[m], labels(report), apkValues(report)[m]);
+            }
+        }
+        header(writer, "query_solve_milliseconds", "Time spent solving each query");
+        for (Report report : reports) {
+            final List<ReportEntry> reportEntries = report.getReportEntries();
+            for (int i = 0; i < reportEntries.size(); i++) {
+                final ReportEntry reportEntry = reportEntries.get(i);
+                sample(writer, "query_solve_milliseconds", queryLabels(report, i, reportEntry),
+                        reportEntry.getSolveMilliseconds());
+            }
+        }
+        header(writer, "query_loaded_rules", "Number of rules loaded to solve each query");
+        for (Report report : reports) {
+            final List<ReportEntry> reportEntries = report.getReportEntries();
+            for (int i = 0; i < reportEntries.size(); i++) {
+                final ReportEntry reportEntry = reportEntries.get(i);
+                sample(writer, "query_loaded_rules", queryLabels(report, i, reportEntry), reportEntry.getLoadedRules());
+            }
+        }
+        header(writer, "query_solver_statistic", "Z3 statistics of the fixedpoint each query was solved with");
+        for (Report report : reports) {
+            final List<ReportEntry> reportEntries = report.getReportEntries();
+            for (int i = 0; i < reportEntries.size(); i++) {
+                final ReportEntry reportEntry = reportEntries.get(i);
+                if (reportEntry.getSolverStatistics() == null) continue;
+                for (Map.Entry<String, Double> statistic : reportEntry.getSolverStatistics().entrySet()) {
+                    writer.write(PREFIX + "query_solver_statistic{" + queryLabels(report, i, reportEntry) +
+                            ",statistic=\"" + escapeLabel(statistic.getKey()) + "\"} " + statistic.getValue() + "\n");
+                }
+            }
+        }
+    }
+
+    /*
+     * One line per metric: apk,metric,query,description,result,value. query, description and result are
+     * empty for the metrics of the whole apk, the phase name is the query column of the phase timings.
+     * A Z3 statistic is the metric solver_statistic:<name>.
+     */
+    public static void writeCsv(List<Report> reports, Writer writer) throws IOException {
+        writer.write("apk,metric,query,description,result,value\n");
+        for (Report report : reports) {
+            for (Map.Entry<String, Long> phase : report.getPhaseMilliseconds().entrySet()) {
+                csvLine(writer, report, "phase_milliseconds", phase.getKey(), "", "", phase.getValue());
+            }
+            final long[] values = apkValues(report);
+            for (int m = 0; m < APK_METRICS.length; m++) {
+                csvLine(writer, report, APK_METRICS[m], "", "", "", values[m]);
+            }
+            final List<ReportEntry> reportEntries = report.getReportEntries();
+            for (int i = 0; i < reportEntries.size(); i++) {
+                final ReportEntry reportEntry = reportEntries.get(i);
+                csvLine(writer, report, "query_solve_milliseconds", Integer.toString(i + 1),
+                        reportEntry.getDescription(), reportEntry.getResult(), reportEntry.getSolveMilliseconds());
+                csvLine(writer, report, "query_loaded_rules", Integer.toString(i + 1),
+                        reportEntry.getDescription(), reportEntry.getResult(), reportEntry.getLoadedRules());
+                if (reportEntry.getSolverStatistics() == null) continue;
+                for (Map.Entry<String, Double> statistic : reportEntry.getSolverStatistics().entrySet()) {
+                    csvLine(writer, report, "solver_statistic:" + statistic.getKey(), Integer.toString(i + 1),
+                            reportEntry.getDescription(), reportEntry.getResult(), statistic.getValue().toString());
+                }
+            }
+        }
+    }
+
+    private static long[] apkValues(Report report) {
+        return new long[]{report.getNumberOfQueries(), report.getNumberOfPrunedQueries(), report.getNumberOfRules(),
+                report.getNumberOfRelations(), report.getLocalHeapSize()};
+    }
+
+    private static void header(Writer writer, String name, String help) throws IOException {
+        header(writer, name, help, "gauge");
+    }
+
+    /*
+     * HELP and TYPE lines of the Prometheus metric PREFIX + name
+     */
+    public static void header(Writer writer, String name, String help, String type) throws IOException {
+        writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + name + " " + type + "\n");
+    }
+
+    private static void sample(Writer writer, String name, String labels, long value) throws IOException {
+        writer.write(PREFIX + name + "{" + labels + "} " + value + "\n");
+    }
+
+    private static String labels(Report report, String... pairs) {
+        final StringBuilder labels = new StringBuilder("apk=\"" + escapeLabel(report.getTag()) + "\"");
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            labels.append(',').append(pairs[i]).append("=\"").append(escapeLabel(pairs[i + 1])).append('"');
+        }
+        return labels.toString();
+    }
+
+    private static String queryLabels(Report report, int index, ReportEntry reportEntry) {
+        return labels(report, "query", Integer.toString(index + 1), "description", reportEntry.getDescription(),
+                "result", reportEntry.getResult());
+    }
+
+    public static String escapeLabel(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void csvLine(Writer writer, Report report, String metric, String query, String description,
+                                String result, long value) throws IOException {
+        csvLine(writer, report, metric, query, description, result, Long.toString(value));
+    }
+
+    private static void csvLine(Writer writer, Report report, String metric, String query, String description,
+                                String result, String value) throws IOException {
+        writer.write(escapeCsv(report.getTag()) + "," + escapeCsv(metric) + "," + escapeCsv(query) + "," +
+                escapeCsv(description) + "," + escapeCsv(result) + "," + value + "\n");
+    }
+
+    private static String escapeCsv(String value) {
+        final String s = String.valueOf(value);
+        if (s.contains(",") || s.contains("\"") || s.contains("\n")) {
+            return "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+        return s;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.printers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+import com.horndroid.model.ReportSink;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a report as newline delimited JSON while the queries are solved: a header line, one line per entry
+ * and a summary trailer once the analysis is over. A file without the trailer belongs to an analysis that did
+ * not finish. The file is flushed every FLUSH_ENTRIES entries and, by a timer, every FLUSH_INTERVAL_MILLISECONDS
+ * so that the entries written before a long query are on disk while it is solved. A write failure is logged and
+ * ends the streaming, the analysis goes on.
+ */
+public class NdjsonReportSink implements ReportSink {
+
+    private static final Logger LOGGER = LogManager.getLogger(NdjsonReportSink.class);
+    private static final int FLUSH_ENTRIES = 100;
+    private static final long FLUSH_INTERVAL_MILLISECONDS = 1000;
+    // one daemon thread flushes the open sinks of every analysis
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "ndjson-report-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final File file;
+    private final Writer writer;
+    private final long startTime = System.currentTimeMillis();
+    private final ScheduledFuture<?> flushTask;
+    private int unflushed = 0;
+    private boolean failed = false;
+
+    public NdjsonReportSink(File file) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create the directory " + parent);
+        }
+        this.file = file;
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        this.flushTask = FLUSHER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MILLISECONDS, FLUSH_INTERVAL_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void begin(String tag, int numberOfQueries) {
+        final ObjectNode line = mapper.createObjectNode();
+        line.put("type", "header");
+        line.put("tag", tag);
+        line.put("numberOfQueries", numberOfQueries);
+        write(line, true);
+    }
+
+    @Override
+    public void entry(int index, ReportEntry reportEntry) {
+        final ObjectNode line = mapper.createObjectNode();
+        line.put("type", "entry");
+        line.put("index", index);
+        line.setAll((ObjectNode) mapper.valueToTree(reportEntry));
+        write(line, false);
+    }
+
+    @Override
+    public void end(Report report) {
+        final Map<String, Integer> results = new TreeMap<>();
+        for (ReportEntry reportEntry : report.getReportEntries()) {
+            final Integer count = results.get(reportEntry.getResult());
+            results.put(reportEntry.getResult(), count == null ? 1 : count + 1);
+        }
+        final ObjectNode line = mapper.createObjectNode();
+        line.put("type", "summary");
+        line.put("tag", report.getTag());
+        line.put("numberOfQueries", report.getNumberOfQueries());
+        line.put("numberOfPrunedQueries", report.getNumberOfPrunedQueries());
+        line.put("numberOfEntries", report.getReportEntries().size());
+        final ObjectNode counts = line.putObject("results");
+        for (Map.Entry<String, Integer> result : results.entrySet()) {
+            counts.put(result.getKey(), result.getValue());
+        }
+        line.put("elapsedMilliseconds", System.currentTimeMillis() - startTime);
+        write(line, true);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flushTask.cancel(false);
+        writer.close();
+    }
+
+    private synchronized void write(ObjectNode line, boolean flush) {
+        if (failed) return;
+        try {
+            mapper.writeValue(writer, line);
+            writer.write('\n');
+            unflushed++;
+            if (flush || unflushed >= FLUSH_ENTRIES) {
+                writer.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /*
+     * Called by the timer, writes out the entries buffered since the last flush
+     */
+    private synchronized void flush() {
+        if (failed || unflushed == 0) return;
+        try {
+            writer.flush();
+            unflushed = 0;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        flushTask.cancel(false);
+        LOGGER.error("Error: Can't write the report stream " + file + ", streaming stopped", e);
+    }
+}
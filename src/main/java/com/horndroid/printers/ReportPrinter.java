@@ -28,8 +28,12 @@ import com.horndroid.exceptions.ReportWritingException;
 import com.horndroid.model.Report;
 import org.apache.commons.io.FileUtils;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 /**
  * This report writer interface can be used to generate JSON/XML/Custom files
@@ -39,18 +43,33 @@ public abstract class ReportPrinter {
 
     protected abstract String getReportInString(Report report) throws ReportWritingException;
 
+    /*
+     * Write the report to writer, printers that can stream the report override this to avoid building the
+     * whole report in a string
+     */
+    protected void writeReport(Report report, Writer writer) throws ReportWritingException, IOException {
+        writer.write(getReportInString(report));
+    }
+
     public void writeReportToFile(Report report, String filename) throws ReportWritingException {
-        String s = getReportInString(report);
-        try {
-            FileUtils.writeStringToFile(new File(filename), s);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                FileUtils.openOutputStream(new File(filename)), Charset.defaultCharset()))) {
+            writeReport(report, writer);
         } catch (IOException e) {
             throw new ReportWritingException("Problem writing report to file", e);
         }
     }
 
     public void printReport(Report report) throws ReportWritingException {
-        String s = getReportInString(report);
-        System.out.println(s);
+        // System.out stays open
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+        try {
+            writeReport(report, writer);
+            writer.write(System.lineSeparator());
+            writer.flush();
+        } catch (IOException e) {
+            throw new ReportWritingException("Problem printing report", e);
+        }
     }
 
 }
@@ -37,13 +37,15 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.*;
 import java.util.regex.Pattern;
 
 public class SourceSinkParser {
 
     private static final Logger LOGGER = LogManager.getLogger(SourceSinkParser.class);
+    // EntryPoints.txt and Callbacks.txt do not depend on the apk, they are read once per JVM
+    private static List<CMPair> entryPoints;
+    private static Set<Integer> callbackClasses;
 
     public static void parseSourceSink(File sourceSinkFile, final SourcesSinks sourcesSinks) throws IOException {
         try (BufferedReader br = new BufferedReader(new FileReader(sourceSinkFile))) {
@@ -67,16 +69,52 @@ public class SourceSinkParser {
     }
 
     public static void parseEntryPoint(final Analysis analysis) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(new File("bin/EntryPoints.txt")))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.charAt(0) == '%') continue;
-                String[] parts = line.split(Pattern.quote(" "));
-                int c = parts[0].hashCode();
-                int m = parts[1].hashCode();
-                analysis.putEntryPoint(c, m);
+        for (CMPair cm : getEntryPoints()) {
+            analysis.putEntryPoint(cm.getC(), cm.getM());
+        }
+    }
+
+    /*
+     * Read the entry points and callback classes now rather than for the first apk
+     */
+    public static void preload() throws IOException {
+        getEntryPoints();
+        getCallbackClasses();
+    }
+
+    private static synchronized List<CMPair> getEntryPoints() throws IOException {
+        if (entryPoints == null) {
+            final List<CMPair> result = new ArrayList<CMPair>();
+            try (BufferedReader br = new BufferedReader(new FileReader(new File("bin/EntryPoints.txt")))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.charAt(0) == '%') continue;
+                    String[] parts = line.split(Pattern.quote(" "));
+                    int c = parts[0].hashCode();
+                    int m = parts[1].hashCode();
+                    result.add(new CMPair(c, m));
+                }
             }
+            entryPoints = Collections.unmodifiableList(result);
         }
+        return entryPoints;
+    }
+
+    private static synchronized Set<Integer> getCallbackClasses() throws IOException {
+        if (callbackClasses == null) {
+            final Set<Integer> result = new HashSet<Integer>();
+            try (BufferedReader br = new BufferedReader(new FileReader(new File("bin/Callbacks.txt")))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.charAt(0) == '%') continue;
+                    String noWhiteSpaces = line.replaceAll(" ", "");
+                    String formatClassName = 'L' + noWhiteSpaces.replaceAll("\\.", "/") + ';';
+                    result.add(formatClassName.hashCode());
+                }
+            }
+            callbackClasses = Collections.unmodifiableSet(result);
+        }
+        return callbackClasses;
     }
 
     public static void parseCallbacksFromXml(final Analysis analysis, final String outputDirectory,
@@ -192,15 +230,7 @@ public class SourceSinkParser {
             }
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(new File("bin/Callbacks.txt")))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.charAt(0) == '%') continue;
-                String noWhiteSpaces = line.replaceAll(" ", "");
-                String formatClassName = 'L' + noWhiteSpaces.replaceAll("\\.", "/") + ';';
-                callbackImplementations.add(formatClassName.hashCode());
-            }
-        }
+        callbackImplementations.addAll(getCallbackClasses());
     }
 
     private static void getXmlFilesInDir(File dir, Set<File> xmlFiles) {
@@ -24,14 +24,38 @@
 
 package com.horndroid.util;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+/*
+ * Known sources and sinks. When created from a text file, the compiled index next to it is loaded on
+ * the first lookup; the text file is parsed, and the index compiled again, only when the index is stale.
+ */
 public class SourcesSinks {
+    private static final Logger LOGGER = LogManager.getLogger(SourcesSinks.class);
     private Map<String,Map<String,Boolean>> map;
+    private final File sourceSinkFile;
+    private final File indexFile;
+    private volatile SourcesSinksIndex index;
+    private volatile boolean loaded;
     
     public SourcesSinks(){
         map = new HashMap<String,Map<String,Boolean>>();
+        this.sourceSinkFile = null;
+        this.indexFile = null;
+        this.loaded = true;
+    }
+
+    public SourcesSinks(final File sourceSinkFile, final File indexFile){
+        map = new HashMap<String,Map<String,Boolean>>();
+        this.sourceSinkFile = sourceSinkFile;
+        this.indexFile = indexFile;
+        this.loaded = false;
     }
     
     public void put(String c, String m, boolean bool){
@@ -42,14 +66,50 @@ public class SourcesSinks {
     }
     
     public Boolean isSourceSink(String c, String m){
-        if (!map.containsKey(c)){
+        if (!loaded){
+            load();
+        }
+        final SourcesSinksIndex idx = index;
+        if (idx != null){
+            return idx.lookup(c, m);
+        }
+        final Map<String,Boolean> methods = map.get(c);
+        if (methods == null){
             return null;
-        }else{
-            if(map.get(c).containsKey(m)){
-                return map.get(c).get(m);
-            }else{
-                return null;
+        }
+        return methods.get(m);
+    }
+
+    /*
+     * Load the sources and sinks now rather than on the first lookup
+     */
+    public void preload(){
+        if (!loaded){
+            load();
+        }
+    }
+
+    private synchronized void load(){
+        if (loaded){
+            return;
+        }
+        final long startTime = System.nanoTime();
+        try {
+            index = SourcesSinksIndex.open(indexFile, sourceSinkFile);
+            if (index == null){
+                LOGGER.info("Sources and sinks index is missing or stale, parsing " + sourceSinkFile);
+                SourceSinkParser.parseSourceSink(sourceSinkFile, this);
+                try {
+                    SourcesSinksIndex.compile(map, sourceSinkFile, indexFile);
+                } catch (IOException e){
+                    LOGGER.warn("Could not write the sources and sinks index " + indexFile, e);
+                }
             }
+        } catch (IOException e){
+            LOGGER.error("Error: Parsing sources/sinks file failed! with exception", e);
+            throw new RuntimeException("SourcesSinks Failed: " + e.getMessage());
         }
-    }    
+        loaded = true;
+        LOGGER.debug("Sources and sinks loaded in " + ((System.nanoTime() - startTime) / 1000000) + " ms");
+    }
 }
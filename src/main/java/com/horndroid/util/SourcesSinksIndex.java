@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/*
+ * Compiled form of the sources and sinks list, memory-mapped read only.
+ *
+ * Layout: a header (magic, version, length and modification time of the text file it was compiled from,
+ * number of entries), the entries sorted by class name hash then method name hash, and a pool holding
+ * every class and method name once. An entry is (class hash, method hash, class name offset,
+ * method name offset, source flag); names are stored as their length followed by their UTF-16 chars,
+ * so that a lookup compares them in place without allocating.
+ */
+public class SourcesSinksIndex {
+    private static final int MAGIC = 0x48445353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;
+    private static final int ENTRY_SIZE = 20;
+
+    private final ByteBuffer buffer;
+    private final int entries;
+
+    private SourcesSinksIndex(final ByteBuffer buffer, final int entries) {
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    /*
+     * Map the index file, return null if it is missing or was not compiled from the current text file
+     */
+    public static SourcesSinksIndex open(final File indexFile, final File sourceSinkFile) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getLong(8) != sourceSinkFile.length()
+                    || buffer.getLong(16) != sourceSinkFile.lastModified()) {
+                return null;
+            }
+            final int entries = buffer.getInt(24);
+            if (channel.size() < HEADER_SIZE + (long) entries * ENTRY_SIZE) {
+                return null;
+            }
+            return new SourcesSinksIndex(buffer, entries);
+        }
+    }
+
+    /*
+     * Write the index of the parsed sources and sinks. The file is written aside and moved in place,
+     * so that concurrent runs never map a partial index.
+     */
+    public static void compile(final Map<String, Map<String, Boolean>> sourcesSinks, final File sourceSinkFile,
+                               final File indexFile) throws IOException {
+        final List<String[]> pairs = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Boolean>> c : sourcesSinks.entrySet()) {
+            for (String m : c.getValue().keySet()) {
+                pairs.add(new String[]{c.getKey(), m});
+            }
+        }
+        Collections.sort(pairs, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                int r = Integer.compare(a[0].hashCode(), b[0].hashCode());
+                if (r == 0) r = Integer.compare(a[1].hashCode(), b[1].hashCode());
+                return r;
+            }
+        });
+
+        // intern the names into the pool placed after the entries
+        final Map<String, Integer> offsets = new LinkedHashMap<>();
+        int poolEnd = HEADER_SIZE + pairs.size() * ENTRY_SIZE;
+        for (String[] pair : pairs) {
+            for (String name : pair) {
+                if (!offsets.containsKey(name)) {
+                    offsets.put(name, poolEnd);
+                    poolEnd += 4 + 2 * name.length();
+                }
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(poolEnd);
+        buffer.putInt(MAGIC).putInt(VERSION)
+                .putLong(sourceSinkFile.length()).putLong(sourceSinkFile.lastModified())
+                .putInt(pairs.size());
+        for (String[] pair : pairs) {
+            buffer.putInt(pair[0].hashCode()).putInt(pair[1].hashCode())
+                    .putInt(offsets.get(pair[0])).putInt(offsets.get(pair[1]))
+                    .putInt(sourcesSinks.get(pair[0]).get(pair[1]) ? 1 : 0);
+        }
+        for (String name : offsets.keySet()) {
+            buffer.putInt(name.length());
+            for (int i = 0; i < name.length(); i++) {
+                buffer.putChar(name.charAt(i));
+            }
+        }
+
+        final File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+                out.write(buffer.array());
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (tmpFile.exists()) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /*
+     * Return true for a source, false for a sink and null if c,m is neither
+     */
+    public Boolean lookup(final String c, final String m) {
+        final int ch = c.hashCode();
+        final int mh = m.hashCode();
+        // first entry not smaller than (ch, mh)
+        int lo = 0;
+        int hi = entries;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int pos = HEADER_SIZE + mid * ENTRY_SIZE;
+            int r = Integer.compare(buffer.getInt(pos), ch);
+            if (r == 0) r = Integer.compare(buffer.getInt(pos + 4), mh);
+            if (r < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < entries; i++) {
+            final int pos = HEADER_SIZE + i * ENTRY_SIZE;
+            if (buffer.getInt(pos) != ch || buffer.getInt(pos + 4) != mh) break;
+            if (nameEquals(buffer.getInt(pos + 8), c) && nameEquals(buffer.getInt(pos + 12), m)) {
+                return buffer.getInt(pos + 16) != 0;
+            }
+        }
+        return null;
+    }
+
+    private boolean nameEquals(final int offset, final String name) {
+        if (buffer.getInt(offset) != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (buffer.getChar(offset + 4 + 2 * i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.horndroid.analysis.Analysis;
+import com.microsoft.z3.Context;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Passes run on the clauses before they are solved, e.g. "dedupe+slice+inline+fold" ("none" or empty for
+ * no pass). The blocks pass is the large-block encoding: it inlines the relations of the program points
+ * inside a basic block, so that each block becomes a single transition. The time and the number of rules
+ * and relations before and after each pass are logged and the time is recorded as the phase pass_<name>
+ * of the analysis, so that runs with different passes can be compared on the solve times of the metrics.
+ */
+final class ClausePipeline {
+
+    private static final Logger LOGGER = LogManager.getLogger(ClausePipeline.class);
+    private final List<ClausePass> passes;
+
+    /*
+     * blockInterior holds the names of the relations the blocks pass may inline
+     */
+    ClausePipeline(final String spec, final Set<String> blockInterior) {
+        passes = new ArrayList<>();
+        if (spec == null || spec.trim().isEmpty() || spec.trim().equals("none")) {
+            return;
+        }
+        for (String name : spec.split("\\+")) {
+            passes.add(pass(name.trim(), blockInterior));
+        }
+    }
+
+    private static ClausePass pass(final String name, final Set<String> blockInterior) {
+        switch (name) {
+            case "blocks":
+                return new InlinePass("blocks", blockInterior);
+            case "dedupe":
+                return new DedupePass();
+            case "slice":
+                return new SlicePass();
+            case "inline":
+                return new InlinePass();
+            case "fold":
+                return new FoldPass();
+            default:
+                throw new RuntimeException("ClausePipeline Failed: unknown pass " + name);
+        }
+    }
+
+    boolean isEmpty() {
+        return passes.isEmpty();
+    }
+
+    HornProgram run(HornProgram program, final Context ctx, final Analysis analysis) {
+        for (ClausePass pass : passes) {
+            final long start = System.nanoTime();
+            final int rules = program.rules.size();
+            final int relations = program.relations.size();
+            program = pass.apply(program, ctx);
+            final long time = System.nanoTime() - start;
+            if (analysis != null) {
+                analysis.recordPhase("pass_" + pass.getName(), time);
+            }
+            LOGGER.info("Clause pass " + pass.getName() + ": " + rules + " -> " + program.rules.size() +
+                    " rules, " + relations + " -> " + program.relations.size() + " relations in " +
+                    (time / 1000000) + " ms");
+        }
+        return program;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Remove duplicate conjuncts and true constraints from the rule bodies, then duplicate rules.
+ * Z3 shares structurally equal terms, so equal terms have the same id and two rules are equal when their
+ * heads, atoms and constraints have the same ids in any order.
+ */
+class DedupePass implements ClausePass {
+
+    @Override
+    public String getName() {
+        return "dedupe";
+    }
+
+    @Override
+    public HornProgram apply(final HornProgram program, final Context ctx) {
+        final List<HornRule> rules = new ArrayList<>(program.rules.size());
+        final Set<String> seen = new HashSet<>();
+        for (HornRule rule : program.rules) {
+            if (rule.opaque) {
+                if (seen.add("opaque:" + rule.source.getId())) {
+                    rules.add(rule);
+                }
+                continue;
+            }
+            final List<Expr> atoms = distinct(rule.atoms, false);
+            final List<Expr> constraints = distinct(rule.constraints, true);
+            if (!seen.add(signature(rule.head, atoms, constraints))) continue;
+            if (atoms.size() == rule.atoms.size() && constraints.size() == rule.constraints.size()) {
+                rules.add(rule);
+            } else {
+                rules.add(rule.rewrite(rule.head, atoms, constraints));
+            }
+        }
+        return program.withRules(rules);
+    }
+
+    private static List<Expr> distinct(final List<Expr> conjuncts, final boolean dropTrue) {
+        final List<Expr> result = new ArrayList<>(conjuncts.size());
+        final Set<Integer> ids = new HashSet<>();
+        for (Expr conjunct : conjuncts) {
+            if (dropTrue && conjunct.isTrue()) continue;
+            if (ids.add(conjunct.getId())) {
+                result.add(conjunct);
+            }
+        }
+        return result;
+    }
+
+    private static String signature(final Expr head, final List<Expr> atoms, final List<Expr> constraints) {
+        return head.getId() + ":" + Arrays.toString(ids(atoms)) + ":" + Arrays.toString(ids(constraints));
+    }
+
+    private static int[] ids(final List<Expr> exprs) {
+        final int[] ids = new int[exprs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = exprs.get(i).getId();
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+}
@@ -32,13 +32,17 @@ import com.horndroid.debugging.MethodeInfo;
 import com.horndroid.debugging.RegInfo;
 import com.horndroid.model.Report;
 import com.horndroid.model.ReportEntry;
+import com.horndroid.model.ReportSink;
 import com.horndroid.util.CMPair;
 import com.microsoft.z3.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.horndroid.constants.TimeConstants.MILLISECONDS_IN_SECOND_CONSTANT;
+import static com.horndroid.constants.TimeConstants.TIME_DISPLAY_MILLISECONDS_CONSTANT;
 import static com.horndroid.debugging.QUERY_TYPE.GLOBAL;
 import static com.horndroid.debugging.QUERY_TYPE.HIGH;
 import static com.horndroid.debugging.QUERY_TYPE.LOCAL;
@@ -47,6 +51,13 @@ import static com.horndroid.debugging.QUERY_TYPE.LOCAL;
 public class FSEngine extends Z3Clauses {
 
     private static final Logger LOGGER = LogManager.getLogger(com.horndroid.z3.FSEngine.class);
+    public static final String TIMEOUT = "TIMEOUT";
+    public static final String UNKNOWN = "UNKNOWN";
+    // set once reading the solver statistics failed, they are not tried again
+    private static volatile boolean statisticsUnavailable = false;
+    // bounds of the number of queries solved together in group mode
+    private static final int GROUP_SIZE_START = 8;
+    private static final int GROUP_SIZE_MAX = 64;
     boolean initialized = false;
     private FSVariable var;
     private FSFunction func;
@@ -59,6 +70,58 @@ public class FSEngine extends Z3Clauses {
 
     private Map<Integer, Integer> allocationPointSize;
 
+    // R_ and RES_ declarations, keyed by relation name and arity, each relation is declared only once
+    private Map<String, FuncDecl> relationCache;
+    private int relationCacheHits = 0;
+    // names and arities of the relations in mFuncs
+    private Set<String> registeredRelations;
+
+    // a worker engine generates clauses in its own context for the engine that created it
+    private boolean isWorker = false;
+    // queries of a worker engine, in generation order, until they are translated
+    private List<Z3Query> workerQueries;
+    // number of relations of a worker engine already translated
+    private int translatedFuncs = 0;
+
+    // head relation -> body relations of the rules, to load only the rules a query depends on
+    private RuleDependencyGraph dependencyGraph = new RuleDependencyGraph();
+
+    // registers live at each program point, keyed by class and method, shared with the worker engines;
+    // the R_ relations of a method without an entry carry every register
+    private Map<String, Map<Integer, BitSet>> liveRegisters = new ConcurrentHashMap<>();
+
+    // local heap slots carried by the relations of each method, keyed by class and method, shared with the
+    // worker engines; the relations of a method without an entry carry the whole local heap
+    private Map<String, BitSet> heapSlices = new ConcurrentHashMap<>();
+    private Map<String, int[]> heapSlots = new ConcurrentHashMap<>();
+
+    // rules and relations as generated while mRules and mFuncs hold the output of the clause passes
+    private List<BoolExpr> generatedRules;
+    private List<FuncDecl> generatedFuncs;
+    // clause passes mRules and mFuncs are the output of
+    private String appliedPasses = "";
+
+    // group mode: number of solver calls, and whether a leak was found with tillFirstLeak set
+    private int groupSolverCalls = 0;
+    private boolean groupLeakFound = false;
+
+    // set by cancel, checked between classes and between queries
+    private volatile boolean cancelled = false;
+    private volatile ParallelQuerySolver activeSolver;
+    private volatile PortfolioQuerySolver activePortfolio;
+
+    // fixedpoint parameters and relation representation every query is solved with
+    private SolverConfiguration solverProfile;
+
+    // nanoseconds spent solving each query of the current executeAllQueries
+    private long[] solveTimes;
+
+    // receives the report entries as the queries are solved, null when the report is not streamed
+    private ReportSink reportSink;
+
+    // fixedpoint of the query session, released at the end of executeAllQueries or by dispose
+    private Fixedpoint sessionFixedpoint;
+
     public FSEngine(Options options) {
         try {
             this.options = options;
@@ -66,14 +129,18 @@ public class FSEngine extends Z3Clauses {
             mQueries = new ArrayList<>();
             //mQueriesDebug = new ArrayList<>();
 
-            Global.setParameter("fixedpoint.engine", "pdr");
-            Global.setParameter("fixedpoint.print_answer", "true");
+            // the fixedpoint engine and the relation representation are set per fixedpoint by the solver profile
+            solverProfile = SolverConfiguration.load(options.solverProfile);
+            LOGGER.info("Solver profile '" + solverProfile.getName() + "': " + solverProfile.getParameters());
 
             //Global.setParameter("pdr.flexible_trace", "true");
             Global.setParameter("pp.bv-literals", "false");
             //Global.setParameter("fixedpoint.generate_proof_trace", "true");
             Global.setParameter("pp.pretty_proof", "true");
             Global.setParameter("opt.print_model", "true");
+            if (options.memoryLimit > 0) {
+                Global.setParameter("memory_max_size", Integer.toString(options.memoryLimit));
+            }
 
             HashMap<String, String> cfg = new HashMap<String, String>();
             mContext = new Context(cfg); // Context ctx = mContext;
@@ -81,6 +148,8 @@ public class FSEngine extends Z3Clauses {
             // mFixedPoint;
             mFuncs = new ArrayList<>();
             mRules = new ArrayList<>();
+            relationCache = new HashMap<>();
+            registeredRelations = new HashSet<>();
 
             // add vars
             var = new FSVariable(mContext, bvSize);
@@ -167,14 +236,149 @@ public class FSEngine extends Z3Clauses {
         }
     }
 
+    /*
+     * Create an engine with its own context, used to generate clauses on another thread.
+     * The base rules are not repeated, they already belong to the creating engine.
+     */
+    private FSEngine(FSEngine parent) {
+        try {
+            this.options = parent.options;
+            solverProfile = parent.solverProfile;
+            liveRegisters = parent.liveRegisters;
+            heapSlices = parent.heapSlices;
+            heapSlots = parent.heapSlots;
+            bvSize = parent.bvSize;
+            mQueries = new ArrayList<>();
+            mContext = new Context(new HashMap<String, String>());
+            mFuncs = new ArrayList<>();
+            mRules = new ArrayList<>();
+            relationCache = new HashMap<>();
+            registeredRelations = new HashSet<>();
+            isWorker = true;
+            workerQueries = new ArrayList<>();
+
+            var = new FSVariable(mContext, bvSize);
+            func = new FSFunction(mContext, bvSize);
+            if (parent.isInitialized()) {
+                if (options.nfsanalysis) {
+                    initializeNFS();
+                } else {
+                    initialize(parent.localHeapSize, parent.allocationPointOffset, parent.allocationPointSize);
+                }
+            }
+        } catch (Z3Exception e) {
+            LOGGER.error("FSEngineFailed", e);
+            throw new RuntimeException("Z3Engine Failed");
+        }
+    }
+
+    /*
+     * Return a new worker engine for this engine
+     */
+    public FSEngine mkWorkerEngine() {
+        return new FSEngine(this);
+    }
+
+    /*
+     * Translate what the worker engine generated since the last call into the context of this engine.
+     * Must be called from the thread owning the worker, this engine's context is locked during the translation.
+     */
+    public GeneratedClauses translateFromWorker(FSEngine worker) {
+        if (!worker.isWorker) {
+            throw new RuntimeException("FSEngine Failed: translateFromWorker requires a worker engine");
+        }
+        final List<FuncDecl> funcs = new ArrayList<>();
+        final List<BoolExpr> rules = new ArrayList<>(worker.mRules.size());
+        final List<Z3Query> queries = new ArrayList<>(worker.workerQueries.size());
+        try {
+            synchronized (this) {
+                for (int i = worker.translatedFuncs; i < worker.mFuncs.size(); i++) {
+                    funcs.add((FuncDecl) worker.mFuncs.get(i).translate(mContext));
+                }
+                for (BoolExpr rule : worker.mRules) {
+                    rules.add((BoolExpr) rule.translate(mContext));
+                    rule.dispose();
+                }
+                for (Z3Query query : worker.workerQueries) {
+                    final BoolExpr workerQuery = query.getQuery();
+                    query.setQuery((BoolExpr) workerQuery.translate(mContext));
+                    workerQuery.dispose();
+                    queries.add(query);
+                }
+            }
+        } catch (Z3Exception e) {
+            LOGGER.error("FSEngineFailed", e);
+            throw new RuntimeException("FSEngine Failed: translateFromWorker");
+        }
+        worker.translatedFuncs = worker.mFuncs.size();
+        worker.mRules.clear();
+        worker.workerQueries.clear();
+        return new GeneratedClauses(funcs, rules, queries);
+    }
+
+    /*
+     * Add clauses translated from a worker engine, in the order they were generated
+     */
+    public void addClauses(GeneratedClauses clauses) {
+        for (FuncDecl f : clauses.funcs) {
+            this.declareRel(f);
+        }
+        for (BoolExpr rule : clauses.rules) {
+            this.addRule(rule, null);
+        }
+        for (Z3Query query : clauses.queries) {
+            if (query.debugging) {
+                this.addQueryDebug(query);
+            } else {
+                this.addQuery(query);
+            }
+        }
+    }
+
     public Context getContext() {
         return mContext;
     }
 
+    /*
+     * Stop the analysis from another thread: the running query is interrupted and no further query is solved
+     */
+    public void cancel() {
+        cancelled = true;
+        final ParallelQuerySolver solver = activeSolver;
+        if (solver != null) {
+            solver.cancel();
+        }
+        final PortfolioQuerySolver portfolio = activePortfolio;
+        if (portfolio != null) {
+            portfolio.cancel();
+        }
+        mContext.interrupt();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new RuntimeException("FSEngine Failed: analysis cancelled");
+        }
+    }
+
+
+    /*
+     * The rule dependency graph is only kept for rule slicing and the reachability pre-check
+     */
+    private boolean usesDependencyGraph() {
+        return options.ruleSlicing || options.reachabilityPrecheck;
+    }
 
     public void addRule(BoolExpr rule, String symbol) {
         try {
             mRules.add(rule);
+            if (!isWorker && usesDependencyGraph()) {
+                dependencyGraph.addRule(rule, mRules.size() - 1);
+            }
         } catch (Z3Exception e) {
             LOGGER.error(e.getMessage());
             throw new RuntimeException("Z3Engine Failed: addRule");
@@ -188,6 +392,9 @@ public class FSEngine extends Z3Clauses {
         this.allocationPointOffset = allocationPointOffset;
         this.allocationPointSize = allocationPointSize;
         this.var.initialize(localHeapSize);
+        if (options.heapArrays) {
+            this.var.initializeArrays();
+        }
         this.initialized = true;
 
         func.setReachLH(this.reachLHDef());
@@ -229,6 +436,10 @@ public class FSEngine extends Z3Clauses {
     }
 
     public void addQuery(Z3Query query) {
+        if (isWorker) {
+            workerQueries.add(query);
+            return;
+        }
         if (options.maxQueries!=0 && mQueries.size() >= options.maxQueries){
             return;
         }
@@ -251,17 +462,33 @@ public class FSEngine extends Z3Clauses {
     }
 
     public void addQueryDebug(Z3Query query) {
+        if (isWorker) {
+            workerQueries.add(query);
+            return;
+        }
         mQueries.add(query);
     }
 
 
 
     public Report executeAllQueries(Analysis analysis, String tag) {
+        checkCancelled();
         Report report = new Report();
-        if (mCurrentQuery != null) mQueries.add(mCurrentQuery);
+        if (mCurrentQuery != null) {
+            mQueries.add(mCurrentQuery);
+            mCurrentQuery = null;
+        }
+
+        optimizeClauses(analysis);
 
         int numberOfQueries = mQueries.size();
         report.setNumberOfQueries(numberOfQueries);
+        report.setNumberOfRules(mRules.size());
+        report.setNumberOfRelations(mFuncs.size());
+        solveTimes = new long[numberOfQueries];
+        if (reportSink != null) {
+            reportSink.begin(tag, numberOfQueries);
+        }
 
 // Used for debugging
         final Debug debug = new Debug(analysis);
@@ -271,27 +498,129 @@ public class FSEngine extends Z3Clauses {
         int percentage = 0;
 
         LOGGER.info("Number of the generated queries: "+ mQueries.size());
+        LOGGER.info("Number of the declared relations: " + getNumberOfRelations() +
+                " (declaration cache hits: " + getRelationCacheHits() + ")");
+
+        // Rules and relations each query depends on
+        final List<RuleDependencyGraph.RuleSlice> slices = options.ruleSlicing ? sliceRules() : null;
+        final RuleDependencyGraph.RuleSlice allSlices = slices != null ? union(slices) : null;
+        // Queries needing a relation that no rule can derive are unsatisfiable, they are not solved
+        final BitSet unreachable = options.reachabilityPrecheck ? findUnreachableQueries() : new BitSet();
+        report.setNumberOfPrunedQueries(unreachable.cardinality());
+
+        // In session mode the rules are loaded once and every query is run against the same fixedpoint
+        Fixedpoint session = null;
+        long setupTime = 0;
+        // In parallel mode the queries are solved upfront by the workers, the results are then handled in order
+        String[] parallelResults = null;
+        // In portfolio mode each query is raced under several configurations, the winning one is reported
+        String[] winners = null;
+        // the portfolio configurations override the parameters of the solver profile
+        final List<SolverConfiguration> configurations = new ArrayList<>();
+        for (SolverConfiguration configuration : SolverConfiguration.parseList(options.portfolio)) {
+            configurations.add(solverProfile.with(configuration));
+        }
+        if (options.solverThreads > 1) {
+            final long parallelStart = System.nanoTime();
+            final ParallelQuerySolver solver = new ParallelQuerySolver(mRules, mFuncs, mQueries,
+                    options.solverThreads, options.tillFirstLeak, options.querySession, options.timeout * 1000,
+                    options.querySession && allSlices != null ? Collections.nCopies(mQueries.size(), allSlices) : slices,
+                    unreachable, solverProfile);
+            LOGGER.info("Rules translated for " + options.solverThreads + " solver threads in " +
+                    Long.toString((System.nanoTime() - parallelStart) / MILLISECONDS_IN_SECOND_CONSTANT) +
+                    TIME_DISPLAY_MILLISECONDS_CONSTANT);
+            activeSolver = solver;
+            if (cancelled) {
+                solver.cancel();
+            }
+            try {
+                parallelResults = solver.solve();
+            } finally {
+                activeSolver = null;
+            }
+            checkCancelled();
+            solveTimes = solver.getSolveTimes();
+        } else if (configurations.size() > 1) {
+            final long portfolioStart = System.nanoTime();
+            final PortfolioQuerySolver portfolio = new PortfolioQuerySolver(mRules, mFuncs, mQueries,
+                    configurations, options.tillFirstLeak, options.timeout * 1000, slices, unreachable);
+            LOGGER.info("Rules translated for " + configurations.size() + " portfolio configurations in " +
+                    Long.toString((System.nanoTime() - portfolioStart) / MILLISECONDS_IN_SECOND_CONSTANT) +
+                    TIME_DISPLAY_MILLISECONDS_CONSTANT);
+            activePortfolio = portfolio;
+            if (cancelled) {
+                portfolio.cancel();
+            }
+            try {
+                parallelResults = portfolio.solve();
+            } finally {
+                activePortfolio = null;
+            }
+            checkCancelled();
+            solveTimes = portfolio.getSolveTimes();
+            winners = portfolio.getWinners();
+            final int[] winCounts = portfolio.getWinCounts();
+            for (int i = 0; i < configurations.size(); i++) {
+                LOGGER.info("Portfolio configuration '" + configurations.get(i).getName() + "' answered " +
+                        winCounts[i] + " queries first");
+            }
+        } else if (options.querySession) {
+            final long sessionStart = System.nanoTime();
+            session = sessionFixedpoint = mkLoadedFixedpoint(options.timeout * 1000, allSlices);
+            setupTime = System.nanoTime() - sessionStart;
+            LOGGER.info("Query session loaded " + mRules.size() + " rules in " +
+                    Long.toString(setupTime / MILLISECONDS_IN_SECOND_CONSTANT) + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        }
+        if (options.groupQueries && parallelResults == null) {
+            final long groupStart = System.nanoTime();
+            parallelResults = solveInGroups(slices, unreachable, session);
+            LOGGER.info("Group testing: " + groupSolverCalls + " solver calls for " +
+                    (mQueries.size() - unreachable.cardinality()) + " queries in " +
+                    Long.toString((System.nanoTime() - groupStart) / MILLISECONDS_IN_SECOND_CONSTANT) +
+                    TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        }
+        final long queriesStart = System.nanoTime();
+        // queries stopped by the time limit, by index, candidates for the retry pass
+        final Map<Integer, ReportEntry> timedOut = new LinkedHashMap<>();
+        boolean leakFound = false;
 
         for (Z3Query mQuery : mQueries) {
+            checkCancelled();
             final ReportEntry reportEntry = new ReportEntry();
             final Z3Query q = mQuery;
             boolean isVerbose = q.isVerbose();
             reportEntry.setVerbose(isVerbose);
             reportEntry.setDescription(q.getDescription());
-
-            final Fixedpoint temp = mContext.mkFixedpoint();
-            for (BoolExpr rule : mRules) {
-                temp.addRule(rule, null);
-            }
-            for (FuncDecl func : mFuncs) {
-                temp.registerRelation(func);
-                Symbol[] symbols = new Symbol[]{mContext.mkSymbol("interval_relation"),
-                        mContext.mkSymbol("bound_relation")};
-                temp.setPredicateRepresentation(func, symbols);
+            if (winners != null) {
+                reportEntry.setSolverConfiguration(winners[counter]);
             }
-            Status result = temp.query(q.getQuery());
 
-            String res_string = result.toString();
+            String res_string;
+            if (unreachable.get(counter)) {
+                res_string = Status.UNSATISFIABLE.toString();
+            } else if (parallelResults != null) {
+                res_string = parallelResults[counter] != null ? parallelResults[counter] : Status.UNKNOWN.toString();
+            } else {
+                if (session != null) {
+                    final long solveStart = System.nanoTime();
+                    res_string = runQuery(session, q.getQuery());
+                    solveTimes[counter] = System.nanoTime() - solveStart;
+                    // the statistics of the shared fixedpoint add up over the queries, they are not recorded
+                } else {
+                    final long setupStart = System.nanoTime();
+                    final Fixedpoint temp = mkLoadedFixedpoint(options.timeout * 1000,
+                            slices != null ? slices.get(counter) : null);
+                    setupTime += System.nanoTime() - setupStart;
+                    try {
+                        final long solveStart = System.nanoTime();
+                        res_string = runQuery(temp, q.getQuery());
+                        solveTimes[counter] = System.nanoTime() - solveStart;
+                        reportEntry.setSolverStatistics(statistics(temp));
+                    } finally {
+                        NativeMemory.dispose(temp);
+                    }
+                }
+            }
 
             //if (res_string.equals("SATISFIABLE"))
             //    System.out.println(temp.getAnswer());
@@ -300,27 +629,32 @@ public class FSEngine extends Z3Clauses {
                 reportEntry.setResult("POTENTIAL LEAK");
             if (res_string.equals("UNSATISFIABLE"))
                 reportEntry.setResult("NO LEAK");
-            if  (!(res_string.equals("SATISFIABLE")) && !res_string.equals("UNSATISFIABLE"))
-                reportEntry.setResult("UNKNOWN");
-
+            if (res_string.equals(TIMEOUT)) {
+                reportEntry.setResult(TIMEOUT);
+                timedOut.put(counter, reportEntry);
+            }
+            if  (!(res_string.equals("SATISFIABLE")) && !res_string.equals("UNSATISFIABLE") && !res_string.equals(TIMEOUT))
+                reportEntry.setResult(UNKNOWN);
+
+            reportEntry.setSolveMilliseconds(solveTimes[counter] / MILLISECONDS_IN_SECOND_CONSTANT);
+            if (!unreachable.get(counter)) {
+                final RuleDependencyGraph.RuleSlice loaded = session != null || options.querySession ? allSlices :
+                        slices != null ? slices.get(counter) : null;
+                reportEntry.setLoadedRules(loaded != null ? loaded.rules.cardinality() : mRules.size());
+            }
             report.addReportEntry(reportEntry);
+            if (reportSink != null) {
+                reportSink.entry(counter, reportEntry);
+            }
 
             LOGGER.info(Integer.toString(counter + 1) + " " + reportEntry.getDescription()+":"+reportEntry.getResult());
 
 
             boolean isSAT = res_string.equals("SATISFIABLE");
             if (!q.debugging && options.tillFirstLeak && isSAT) {
+                leakFound = true;
                 break;
             }
-            /*
-			 * Apparently the Z3 wrapper is not handling the memory correctly,
-			 * need to GC manually. See:
-			 * http://stackoverflow.com/questions/24188626/performance-issues-
-			 * about-z3-for-java#comment37349014_24190067
-			 */
-            if (counter % 50 == 0) {
-                System.gc();
-            }
             if ((counter + 1 >= currentPrint + (mQueries.size()/ 10)) && (mQueries.size() > 50)) {
                 currentPrint = counter + 1;
                 percentage += 10;
@@ -329,57 +663,490 @@ public class FSEngine extends Z3Clauses {
 
             counter++;
 
-            if (q.debugging && q.isReg) {
-                final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
-                boolean res = isSAT;
-                switch (q.queryType) {
-                    case HIGH:
-                        minfo.regInfo[q.regNum].highPut(Integer.parseInt(q.getPc()), res);
-                        break;
-                    case LOCAL:
-                        minfo.regInfo[q.regNum].localPut(Integer.parseInt(q.getPc()), res);
-                        break;
-                    case GLOBAL:
-                        minfo.regInfo[q.regNum].globalPut(Integer.parseInt(q.getPc()), res);
-                        break;
-                    default:
-                        throw new RuntimeException(
-                                "In flow sensitive mode received a standard query: " + q.queryType.toString());
-                }
-            }
-            if (q.debugging && q.isLocalHeap) {
-                final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
-                boolean res = isSAT;
-                // LHKey lhkey = new LHKey(q.instanceNum,q.field);
-                final LHInfo lhinf = minfo.getLHInfo(q.instanceNum, q.field);
-                final RegInfo regInf = lhinf.getRegInfo();
-                Integer k = Integer.parseInt(q.getPc());
-                switch (q.queryType) {
-                    case HIGH:
-                        regInf.highPut(k, res);
-                        break;
-                    case LOCAL:
-                        regInf.localPut(k, res);
-                        break;
-                    case GLOBAL:
-                        regInf.globalPut(k, res);
-                        break;
-                    default:
-                        throw new RuntimeException(
-                                "In flow sensitive mode received a standard query: " + q.queryType.toString());
-                }
-            }
+            recordDebugResult(debug, q, isSAT);
+        }
+
+        final long queriesTime = System.nanoTime() - queriesStart;
+        if (options.solverThreads > 1) {
+            LOGGER.info("Queries handled on " + options.solverThreads + " solver threads in " +
+                    Long.toString(queriesTime / MILLISECONDS_IN_SECOND_CONSTANT) + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        } else if (options.querySession) {
+            LOGGER.info("Queries handled in session mode in " +
+                    Long.toString(queriesTime / MILLISECONDS_IN_SECOND_CONSTANT) + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        } else {
+            LOGGER.info("Queries handled in " + Long.toString(queriesTime / MILLISECONDS_IN_SECOND_CONSTANT) +
+                    TIME_DISPLAY_MILLISECONDS_CONSTANT + ", of which " +
+                    Long.toString(setupTime / MILLISECONDS_IN_SECOND_CONSTANT) + TIME_DISPLAY_MILLISECONDS_CONSTANT +
+                    " spent re-loading the rules for each query");
         }
 
+        releaseSession();
+        if (options.retryTimeout > 0 && !timedOut.isEmpty() && !leakFound) {
+            retryTimedOut(timedOut, debug, slices);
+        }
+        LOGGER.info("Native memory watermark: " + NativeMemory.getWatermark() / (1024 * 1024) + " MB resident, " +
+                NativeMemory.getLiveFixedpoints() + " live fixedpoints");
+
         debug.printToLatex();
         report.setTag(tag);
+        if (reportSink != null) {
+            reportSink.end(report);
+        }
         return report;
     }
 
+    /*
+     * Re-run the queries that hit the time limit with the larger retry budget, once all the other queries are done
+     */
+    private void retryTimedOut(final Map<Integer, ReportEntry> timedOut, final Debug debug,
+                               final List<RuleDependencyGraph.RuleSlice> slices) {
+        LOGGER.info("Retrying " + timedOut.size() + " timed out queries with a " + options.retryTimeout + " seconds limit");
+        final long startTime = System.nanoTime();
+        for (Map.Entry<Integer, ReportEntry> entry : timedOut.entrySet()) {
+            checkCancelled();
+            final Z3Query q = mQueries.get(entry.getKey());
+            final ReportEntry reportEntry = entry.getValue();
+            final Fixedpoint fixedpoint = mkLoadedFixedpoint(options.retryTimeout * 1000,
+                    slices != null ? slices.get(entry.getKey()) : null);
+            final String res_string;
+            try {
+                final long solveStart = System.nanoTime();
+                res_string = runQuery(fixedpoint, q.getQuery());
+                reportEntry.setSolveMilliseconds(reportEntry.getSolveMilliseconds() +
+                        (System.nanoTime() - solveStart) / MILLISECONDS_IN_SECOND_CONSTANT);
+                reportEntry.setSolverStatistics(statistics(fixedpoint));
+            } finally {
+                NativeMemory.dispose(fixedpoint);
+            }
+            if (res_string.equals("SATISFIABLE"))
+                reportEntry.setResult("POTENTIAL LEAK");
+            else if (res_string.equals("UNSATISFIABLE"))
+                reportEntry.setResult("NO LEAK");
+            else if (res_string.equals(TIMEOUT))
+                reportEntry.setResult(TIMEOUT);
+            else
+                reportEntry.setResult(UNKNOWN);
+            if (reportSink != null) {
+                reportSink.entry(entry.getKey(), reportEntry);
+            }
+
+            LOGGER.info(Integer.toString(entry.getKey() + 1) + " " + reportEntry.getDescription() + ":" + reportEntry.getResult());
+
+            final boolean isSAT = res_string.equals("SATISFIABLE");
+            recordDebugResult(debug, q, isSAT);
+            if (!q.debugging && options.tillFirstLeak && isSAT) {
+                break;
+            }
+        }
+        final long endTime = System.nanoTime();
+        LOGGER.info("Retry pass done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
+                TIME_DISPLAY_MILLISECONDS_CONSTANT);
+    }
+
+    /*
+     * Compute the backward slice of every query over the rule dependency graph
+     */
+    private List<RuleDependencyGraph.RuleSlice> sliceRules() {
+        final long startTime = System.nanoTime();
+        final List<RuleDependencyGraph.RuleSlice> slices = new ArrayList<>(mQueries.size());
+        long loadedRules = 0;
+        for (Z3Query q : mQueries) {
+            final RuleDependencyGraph.RuleSlice slice = dependencyGraph.slice(q.getQuery());
+            loadedRules += slice.rules.cardinality();
+            slices.add(slice);
+        }
+        if (!slices.isEmpty()) {
+            LOGGER.info("Rule slicing: " + (loadedRules / slices.size()) + " of " + mRules.size() +
+                    " rules per query on average, computed in " +
+                    Long.toString((System.nanoTime() - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
+                    TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        }
+        return slices;
+    }
+
+    /*
+     * Group testing: the disjunction of a group of queries is solved at once. If it is unsatisfiable every
+     * query of the group is, otherwise the group is split in halves. The group size doubles after an
+     * unsatisfiable group and halves after a satisfiable one. Queries are attributed their own result, as if
+     * they were solved alone: a query is only reported satisfiable, timed out or unknown when solved alone,
+     * or when its group was satisfiable and the rest of the group unsatisfiable.
+     */
+    private String[] solveInGroups(final List<RuleDependencyGraph.RuleSlice> slices, final BitSet unreachable,
+                                   final Fixedpoint session) {
+        final String[] results = new String[mQueries.size()];
+        groupSolverCalls = 0;
+        groupLeakFound = false;
+        int groupSize = GROUP_SIZE_START;
+        int next = 0;
+        while (next < mQueries.size() && !groupLeakFound) {
+            checkCancelled();
+            final List<Integer> group = new ArrayList<>();
+            while (next < mQueries.size() && group.size() < groupSize) {
+                if (!unreachable.get(next)) {
+                    group.add(next);
+                }
+                next++;
+            }
+            if (group.isEmpty()) continue;
+            final boolean sat = solveGroup(group, false, results, slices, session);
+            groupSize = sat ? Math.max(1, groupSize / 2) : Math.min(GROUP_SIZE_MAX, groupSize * 2);
+        }
+        return results;
+    }
+
+    /*
+     * Solve the group, knownSat is set when the disjunction of the group is known to be satisfiable.
+     * Return true if a query of the group is satisfiable.
+     */
+    private boolean solveGroup(final List<Integer> group, final boolean knownSat, final String[] results,
+                               final List<RuleDependencyGraph.RuleSlice> slices, final Fixedpoint session) {
+        final String sat = Status.SATISFIABLE.toString();
+        if (group.size() == 1) {
+            final int i = group.get(0);
+            if (knownSat) {
+                results[i] = sat;
+            } else {
+                groupSolverCalls++;
+                final long solveStart = System.nanoTime();
+                results[i] = runGroupQuery(group, slices, session, mQueries.get(i).getQuery());
+                solveTimes[i] = System.nanoTime() - solveStart;
+            }
+            if (results[i].equals(sat) && options.tillFirstLeak && !mQueries.get(i).debugging) {
+                groupLeakFound = true;
+            }
+            return results[i].equals(sat);
+        }
+        String result = sat;
+        if (!knownSat) {
+            final BoolExpr[] members = new BoolExpr[group.size()];
+            for (int k = 0; k < group.size(); k++) {
+                members[k] = mQueries.get(group.get(k)).getQuery();
+            }
+            groupSolverCalls++;
+            final BoolExpr groupQuery = this.or(members);
+            result = runGroupQuery(group, slices, session, groupQuery);
+            groupQuery.dispose();
+            if (result.equals(Status.UNSATISFIABLE.toString())) {
+                for (int i : group) {
+                    results[i] = result;
+                }
+                return false;
+            }
+        }
+        // satisfiable, timed out or unknown: solve the halves
+        final List<Integer> left = group.subList(0, group.size() / 2);
+        final List<Integer> right = group.subList(group.size() / 2, group.size());
+        final boolean leftSat = solveGroup(left, false, results, slices, session);
+        if (groupLeakFound) {
+            return true;
+        }
+        checkCancelled();
+        // a satisfiable group with an unsatisfiable left half has a satisfiable right half
+        final boolean rightKnownSat = result.equals(sat) && !leftSat && allUnsat(left, results);
+        return solveGroup(right, rightKnownSat, results, slices, session) || leftSat;
+    }
+
+    private static boolean allUnsat(final List<Integer> group, final String[] results) {
+        for (int i : group) {
+            if (!Status.UNSATISFIABLE.toString().equals(results[i])) return false;
+        }
+        return true;
+    }
+
+    private String runGroupQuery(final List<Integer> group, final List<RuleDependencyGraph.RuleSlice> slices,
+                                 final Fixedpoint session, final BoolExpr query) {
+        if (session != null) {
+            return runQuery(session, query);
+        }
+        RuleDependencyGraph.RuleSlice slice = null;
+        if (slices != null) {
+            slice = new RuleDependencyGraph.RuleSlice(new BitSet(), new BitSet());
+            for (int i : group) {
+                slice = slice.union(slices.get(i));
+            }
+        }
+        return runQueryOnce(mkLoadedFixedpoint(options.timeout * 1000, slice), query);
+    }
+
+    /*
+     * Queries that can't hold because one of their relations is not derivable from the facts
+     */
+    private BitSet findUnreachableQueries() {
+        final long startTime = System.nanoTime();
+        final BitSet derivable = dependencyGraph.derivableRelations();
+        final BitSet unreachable = new BitSet();
+        for (int i = 0; i < mQueries.size(); i++) {
+            if (!dependencyGraph.mayHold(mQueries.get(i).getQuery(), derivable)) {
+                unreachable.set(i);
+            }
+        }
+        LOGGER.info("Reachability pre-check: " + unreachable.cardinality() + " of " + mQueries.size() +
+                " queries unreachable, checked in " +
+                Long.toString((System.nanoTime() - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
+                TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        return unreachable;
+    }
+
+    private static RuleDependencyGraph.RuleSlice union(final List<RuleDependencyGraph.RuleSlice> slices) {
+        RuleDependencyGraph.RuleSlice result = new RuleDependencyGraph.RuleSlice(new BitSet(), new BitSet());
+        for (RuleDependencyGraph.RuleSlice slice : slices) {
+            result = result.union(slice);
+        }
+        return result;
+    }
+
+    /*
+     * Store the result of a debugging query
+     */
+    private void recordDebugResult(final Debug debug, final Z3Query q, final boolean isSAT) {
+        if (q.debugging && q.isReg) {
+            final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
+            boolean res = isSAT;
+            switch (q.queryType) {
+                case HIGH:
+                    minfo.regInfo[q.regNum].highPut(Integer.parseInt(q.getPc()), res);
+                    break;
+                case LOCAL:
+                    minfo.regInfo[q.regNum].localPut(Integer.parseInt(q.getPc()), res);
+                    break;
+                case GLOBAL:
+                    minfo.regInfo[q.regNum].globalPut(Integer.parseInt(q.getPc()), res);
+                    break;
+                default:
+                    throw new RuntimeException(
+                            "In flow sensitive mode received a standard query: " + q.queryType.toString());
+            }
+        }
+        if (q.debugging && q.isLocalHeap) {
+            final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
+            boolean res = isSAT;
+            // LHKey lhkey = new LHKey(q.instanceNum,q.field);
+            final LHInfo lhinf = minfo.getLHInfo(q.instanceNum, q.field);
+            final RegInfo regInf = lhinf.getRegInfo();
+            Integer k = Integer.parseInt(q.getPc());
+            switch (q.queryType) {
+                case HIGH:
+                    regInf.highPut(k, res);
+                    break;
+                case LOCAL:
+                    regInf.localPut(k, res);
+                    break;
+                case GLOBAL:
+                    regInf.globalPut(k, res);
+                    break;
+                default:
+                    throw new RuntimeException(
+                            "In flow sensitive mode received a standard query: " + q.queryType.toString());
+            }
+        }
+    }
+
+    /*
+     * Run the query on a fixedpoint made for it, the fixedpoint is released right after
+     */
+    static String runQueryOnce(final Fixedpoint fixedpoint, final BoolExpr query) {
+        try {
+            return runQuery(fixedpoint, query);
+        } finally {
+            NativeMemory.dispose(fixedpoint);
+        }
+    }
+
+    /*
+     * Run the query and return its status as a string, a query stopped by the time limit gives TIMEOUT
+     */
+    static String runQuery(final Fixedpoint fixedpoint, final BoolExpr query) {
+        try {
+            final Status result = fixedpoint.query(query);
+            if (result == Status.UNKNOWN && isTimeout(fixedpoint.getReasonUnknown())) {
+                return TIMEOUT;
+            }
+            return result.toString();
+        } catch (Z3Exception e) {
+            if (isTimeout(e.getMessage())) {
+                return TIMEOUT;
+            }
+            // e.g. the memory limit was reached
+            LOGGER.warn("Query failed: " + e.getMessage());
+            return Status.UNKNOWN.toString();
+        }
+    }
+
+    /*
+     * Z3 statistics of the query run on fixedpoint, null when they can't be read
+     */
+    private Map<String, Double> statistics(final Fixedpoint fixedpoint) {
+        if (statisticsUnavailable) return null;
+        try {
+            return FixedpointStatistics.get(mContext, fixedpoint);
+        } catch (Z3Exception e) {
+            statisticsUnavailable = true;
+            LOGGER.warn("Can't read the solver statistics, they are not recorded: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isTimeout(final String reason) {
+        return reason != null && (reason.contains("timeout") || reason.contains("canceled"));
+    }
+
+    /*
+     * Create a fixedpoint holding all the generated rules and relations, queries are stopped after timeout milliseconds
+     */
+    private Fixedpoint mkLoadedFixedpoint(final int timeout) {
+        return mkLoadedFixedpoint(timeout, null);
+    }
+
+    /*
+     * Fixedpoint loaded with the rules and relations of the slice, or with all of them when slice is null
+     */
+    private Fixedpoint mkLoadedFixedpoint(final int timeout, final RuleDependencyGraph.RuleSlice slice) {
+        final Fixedpoint fixedpoint = NativeMemory.mkFixedpoint(mContext);
+        try {
+            final Params params = mContext.mkParams();
+            if (timeout > 0) {
+                params.add("timeout", timeout);
+            }
+            solverProfile.applyTo(mContext, params);
+            fixedpoint.setParameters(params);
+            params.dispose();
+            final Symbol[] symbols = solverProfile.representation(mContext);
+            if (slice == null) {
+                for (BoolExpr rule : mRules) {
+                    fixedpoint.addRule(rule, null);
+                }
+                for (FuncDecl func : mFuncs) {
+                    registerRelation(fixedpoint, func, symbols);
+                }
+            } else {
+                for (int i = slice.rules.nextSetBit(0); i >= 0; i = slice.rules.nextSetBit(i + 1)) {
+                    fixedpoint.addRule(mRules.get(i), null);
+                }
+                for (int i = slice.funcs.nextSetBit(0); i >= 0; i = slice.funcs.nextSetBit(i + 1)) {
+                    registerRelation(fixedpoint, mFuncs.get(i), symbols);
+                }
+            }
+        } catch (RuntimeException e) {
+            NativeMemory.dispose(fixedpoint);
+            throw e;
+        }
+        return fixedpoint;
+    }
+
+    private static void registerRelation(final Fixedpoint fixedpoint, final FuncDecl func, final Symbol[] symbols) {
+        fixedpoint.registerRelation(func);
+        if (symbols != null) {
+            fixedpoint.setPredicateRepresentation(func, symbols);
+        }
+    }
+
+    private void releaseSession() {
+        NativeMemory.dispose(sessionFixedpoint);
+        sessionFixedpoint = null;
+    }
+
+    /*
+     * Release the native memory of the rules, relations, queries and context once the analysis is over.
+     * The engine can't be used afterwards.
+     */
+    public void dispose() {
+        releaseSession();
+        if (mCurrentQuery != null) {
+            mQueries.add(mCurrentQuery);
+            mCurrentQuery = null;
+        }
+        for (Z3Query query : mQueries) {
+            query.getQuery().dispose();
+        }
+        // the optimized clauses share most of their objects with the generated ones, each is released once
+        final Set<Z3Object> released = Collections.newSetFromMap(new IdentityHashMap<Z3Object, Boolean>());
+        released.addAll(mRules);
+        released.addAll(mFuncs);
+        if (generatedRules != null) {
+            released.addAll(generatedRules);
+            released.addAll(generatedFuncs);
+        }
+        for (Z3Object object : released) {
+            object.dispose();
+        }
+        mQueries.clear();
+        mRules.clear();
+        mFuncs.clear();
+        relationCache.clear();
+        NativeMemory.dispose(mContext);
+    }
+
+    /*
+     * Run the clause passes of the solver profile on the generated clauses. mRules and mFuncs are replaced by
+     * the optimized clauses, the generated ones are kept so that another profile can start from them again.
+     */
+    private void optimizeClauses(final Analysis analysis) {
+        // the blocks pass composes the rules inside basic blocks before the passes of the profile
+        final String profilePasses = solverProfile.passes();
+        final String passes = !options.largeBlocks ? profilePasses
+                : profilePasses.isEmpty() || profilePasses.equals("none") ? "blocks" : "blocks+" + profilePasses;
+        if (passes.equals(appliedPasses)) {
+            return;
+        }
+        if (generatedRules == null) {
+            generatedRules = mRules;
+            generatedFuncs = mFuncs;
+        }
+        final ClausePipeline pipeline = new ClausePipeline(passes,
+                analysis != null ? analysis.getBlockInteriorRelations() : Collections.<String>emptySet());
+        if (pipeline.isEmpty()) {
+            mRules = new ArrayList<>(generatedRules);
+            mFuncs = new ArrayList<>(generatedFuncs);
+        } else {
+            try {
+                final HornProgram program = pipeline.run(HornProgram.of(generatedRules, generatedFuncs, mQueries),
+                        mContext, analysis);
+                mRules = new ArrayList<>(program.lower(mContext));
+                mFuncs = new ArrayList<>(program.relations);
+            } catch (Z3Exception e) {
+                e.printStackTrace();
+                throw new RuntimeException("FSEngine Failed: clause passes");
+            }
+        }
+        dependencyGraph = new RuleDependencyGraph();
+        if (usesDependencyGraph()) {
+            for (int i = 0; i < mFuncs.size(); i++) {
+                dependencyGraph.addRelation(mFuncs.get(i), i);
+            }
+            for (int i = 0; i < mRules.size(); i++) {
+                dependencyGraph.addRule(mRules.get(i), i);
+            }
+        }
+        appliedPasses = passes;
+    }
+
+    /*
+     * Stream the report entries of executeAllQueries to sink, null to stop streaming
+     */
+    public void setReportSink(final ReportSink reportSink) {
+        this.reportSink = reportSink;
+    }
+
+    public SolverConfiguration getSolverProfile() {
+        return solverProfile;
+    }
+
+    /*
+     * Solve the next executeAllQueries with another profile, used to compare profiles on the same clauses
+     */
+    public void setSolverProfile(final SolverConfiguration solverProfile) {
+        this.solverProfile = solverProfile;
+    }
+
 
     public void declareRel(FuncDecl funcDecl) {
         try {
-            mFuncs.add(funcDecl);
+            if (registeredRelations.add(funcDecl.getName().toString() + '/' + funcDecl.getDomainSize())) {
+                mFuncs.add(funcDecl);
+                if (!isWorker && usesDependencyGraph()) {
+                    dependencyGraph.addRelation(funcDecl, mFuncs.size() - 1);
+                }
+            }
         } catch (Z3Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Z3Engine Failed: declareRel");
@@ -396,6 +1163,20 @@ public class FSEngine extends Z3Clauses {
         }
     }
 
+    /*
+     * Number of distinct relations registered in the fixedpoint
+     */
+    public int getNumberOfRelations() {
+        return mFuncs.size();
+    }
+
+    /*
+     * Number of R_ and RES_ relation declarations served from the cache
+     */
+    public int getRelationCacheHits() {
+        return relationCacheHits;
+    }
+
     public void declareVar(Sort type) {
         try {
             Expr var = mContext.mkBound(0, type);
@@ -405,24 +1186,249 @@ public class FSEngine extends Z3Clauses {
         }
     }
 
-    private FuncDecl rPredDef(String c, String m, int pc, int size) {
-        try {
-            // rPredDef
-            BitVecSort bv64 = mContext.mkBitVecSort(bvSize);
-            BoolSort bool = mContext.mkBoolSort();
+    /*
+     * Name of the relation of the program point pc of method m of class c
+     */
+    public static String rPredName(final String c, final String m, final int pc) {
+        return "R_" + c + '_' + m + '_' + Integer.toString(pc);
+    }
+
+    /*
+     * Project R_ relations of method m of class c on the registers live at each program point
+     */
+    public void setLiveRegisters(final String c, final String m, final Map<Integer, BitSet> live) {
+        liveRegisters.put(c + '_' + m, live);
+    }
+
+    /*
+     * Positions of the registers R_c_m_pc carries, null for all of them. The registers are the numReg
+     * registers of the method, the result register and the copies of the numArg arguments; only dead
+     * registers of the method are left out.
+     */
+    private int[] projection(final String c, final String m, final int pc, final int numArg, final int numReg) {
+        final Map<Integer, BitSet> method = liveRegisters.get(c + '_' + m);
+        final BitSet live = method != null ? method.get(pc) : null;
+        if (live == null) {
+            return null;
+        }
+        final int size = numArg + numReg + 1;
+        final int[] kept = new int[live.get(0, numReg).cardinality() + numArg + 1];
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            if (i >= numReg || live.get(i)) {
+                kept[k++] = i;
+            }
+        }
+        return kept;
+    }
+
+    /*
+     * Restrict the local heap of the R_ and RES_ relations of method m of class c to the slots of slice.
+     * The slots left out share one filter argument, set when the whole local heap is lifted.
+     */
+    public void setHeapSlice(final String c, final String m, final BitSet slice) {
+        final int[] slots = new int[slice.cardinality()];
+        for (int i = slice.nextSetBit(0), k = 0; i >= 0; i = slice.nextSetBit(i + 1), k++) {
+            slots[k] = i;
+        }
+        heapSlices.put(c + '_' + m, slice);
+        heapSlots.put(c + '_' + m, slots);
+    }
+
+    /*
+     * Local heap slots the relations of method m of class c carry, null for all of them
+     */
+    public BitSet getHeapSlice(final String c, final String m) {
+        return heapSlices.get(c + '_' + m);
+    }
+
+    /*
+     * Filter of the slots a heap slice leaves out: the filter set for the first of them, if any.
+     * The clauses set the filter of every slot at once when they lift the whole local heap.
+     */
+    private BoolExpr outsideFilter(final BitSet slice, final Map<Integer, BoolExpr> lHFilter, final BoolExpr otherwise) {
+        if (!lHFilter.isEmpty()) {
+            for (int i = slice.nextClearBit(0); i < this.localHeapSize; i = slice.nextClearBit(i + 1)) {
+                final BoolExpr filter = lHFilter.get(i);
+                if (filter != null) {
+                    return filter;
+                }
+            }
+        }
+        return otherwise;
+    }
+
+    /*
+     * Arguments of an R_ or RES_ relation restricted to the kept register positions and to the local heap
+     * slots, followed by the filter of the slots left out; null kept or slots keep all of them
+     */
+    private Expr[] project(final Expr[] e, final int[] kept, final int size, final int[] slots, final BoolExpr outside) {
+        final int k = kept != null ? kept.length : size;
+        final int s = slots != null ? slots.length : this.localHeapSize;
+        final Expr[] p = new Expr[4 * k + 5 * s + (slots != null ? 1 : 0)];
+        for (int t = 0; t < k; t++) {
+            final int i = kept != null ? kept[t] : t;
+            p[t] = e[i];
+            p[k + t] = e[size + i];
+            p[2 * k + t] = e[2 * size + i];
+            p[3 * k + t] = e[3 * size + i];
+        }
+        if (slots == null) {
+            System.arraycopy(e, 4 * size, p, 4 * k, 5 * this.localHeapSize);
+            return p;
+        }
+        for (int t = 0; t < s; t++) {
+            final int i = 4 * size + slots[t];
+            p[4 * k + t] = e[i];
+            p[4 * k + s + t] = e[i + this.localHeapSize];
+            p[4 * k + 2 * s + t] = e[i + 2 * this.localHeapSize];
+            p[4 * k + 3 * s + t] = e[i + 3 * this.localHeapSize];
+            p[4 * k + 4 * s + t] = e[i + 4 * this.localHeapSize];
+        }
+        p[4 * k + 5 * s] = outside;
+        return p;
+    }
+
+    /*
+     * Arguments of an R_ or RES_ relation in the array encoding: the register expressions of e, restricted to
+     * the kept positions, followed by one array per local heap component in the order LHV, LHH, LHL, LHG, LHF.
+     * The arrays are built from the updated slots only; a null lHFilter stands for a filter that is all false.
+     */
+    private Expr[] heapArrays(final Expr[] e, final int[] kept, final int size,
+                              final Map<Integer, BitVecExpr> lHValues, final Map<Integer, BoolExpr> lHHigh,
+                              final Map<Integer, BoolExpr> lHLocal, final Map<Integer, BoolExpr> lHGlobal,
+                              final Map<Integer, BoolExpr> lHFilter) {
+        final int k = kept != null ? kept.length : size;
+        final Expr[] p = new Expr[4 * k + 5];
+        for (int t = 0; t < k; t++) {
+            final int i = kept != null ? kept[t] : t;
+            p[t] = e[i];
+            p[k + t] = e[size + i];
+            p[2 * k + t] = e[2 * size + i];
+            p[3 * k + t] = e[3 * size + i];
+        }
+        p[4 * k] = heapArray(lHValues, 0);
+        p[4 * k + 1] = heapArray(lHHigh, 1);
+        p[4 * k + 2] = heapArray(lHLocal, 2);
+        p[4 * k + 3] = heapArray(lHGlobal, 3);
+        p[4 * k + 4] = lHFilter != null ? heapArray(lHFilter, 4)
+                : mContext.mkConstArray(mContext.mkIntSort(), this.mkFalse());
+        return p;
+    }
+
+    /*
+     * Array of component k with the updated slots stored, the other slots keep their select of the array.
+     * Only an update of every slot is compared slot by slot, to find a copy or a constant array.
+     */
+    private ArrayExpr heapArray(final Map<Integer, ? extends Expr> updates, final int k) {
+        if (updates.size() < this.localHeapSize) {
+            ArrayExpr array = var.getHeapArray(k);
+            for (Map.Entry<Integer, ? extends Expr> update : updates.entrySet()) {
+                if (!update.getValue().equals(selectOf(k, update.getKey()))) {
+                    array = mContext.mkStore(array, mContext.mkInt(update.getKey()), update.getValue());
+                }
+            }
+            return array;
+        }
+        final Expr[] e = new Expr[this.localHeapSize];
+        for (int i = 0; i < this.localHeapSize; i++) {
+            e[i] = updates.get(i);
+        }
+        return heapArray(e, 0, k);
+    }
+
+    /*
+     * Array whose slot i holds e[from + i]. It is built on the array of component k, or on its copy, by storing
+     * the slots that are not selects of that array; slots all holding the same constant give a constant array.
+     */
+    private ArrayExpr heapArray(final Expr[] e, final int from, final int k) {
+        if (this.localHeapSize == 0) {
+            return var.getHeapArray(k);
+        }
+        int own = 0;
+        int copy = 0;
+        boolean constant = e[from].isTrue() || e[from].isFalse() || e[from].isNumeral();
+        for (int i = 0; i < this.localHeapSize; i++) {
+            if (e[from + i].equals(selectOf(k, i))) {
+                own++;
+            } else if (e[from + i].equals(selectOf(k + 5, i))) {
+                copy++;
+            }
+            constant = constant && e[from + i].equals(e[from]);
+        }
+        if (constant) {
+            return mContext.mkConstArray(mContext.mkIntSort(), e[from]);
+        }
+        final int base = copy > own ? k + 5 : k;
+        ArrayExpr array = var.getHeapArray(base);
+        for (int i = 0; i < this.localHeapSize; i++) {
+            if (!e[from + i].equals(selectOf(base, i))) {
+                array = mContext.mkStore(array, mContext.mkInt(i), e[from + i]);
+            }
+        }
+        return array;
+    }
 
-            String funcName = "R_" + c + '_' + m + '_' + Integer.toString(pc);
-            Sort[] domains = new Sort[4 * size + 5 * localHeapSize];
-            // argument + register + result register
+    /*
+     * Select of slot i of the array of component k, as FSVariable builds it
+     */
+    private Expr selectOf(final int k, final int i) {
+        switch (k) {
+            case 0: return var.getLHV(i);
+            case 1: return var.getLHH(i);
+            case 2: return var.getLHL(i);
+            case 3: return var.getLHG(i);
+            case 4: return var.getLHF(i);
+            case 5: return var.getLHCV(i);
+            case 6: return var.getLHCH(i);
+            case 7: return var.getLHCL(i);
+            case 8: return var.getLHCG(i);
+            default: return var.getLHCF(i);
+        }
+    }
+
+    /*
+     * Sorts of a relation with size registers and the local heap slots of the method, null slots for all of them
+     */
+    private Sort[] domains(final int size, final int[] slots) {
+        BitVecSort bv64 = mContext.mkBitVecSort(bvSize);
+        BoolSort bool = mContext.mkBoolSort();
+        if (var.hasHeapArrays()) {
+            Sort[] domains = new Sort[4 * size + 5];
             Arrays.fill(domains, 0, size, bv64);
-            // high value and local object label and global object label
             Arrays.fill(domains, size, 4 * size, bool);
-            // local heap entries
-            Arrays.fill(domains, 4 * size, 4 * size + localHeapSize, bv64);
-            // high value and local object label and global object label and abstract filter
-            Arrays.fill(domains, 4 * size + localHeapSize, 4 * size + 5 * localHeapSize, bool);
+            // local heap values, then high value and local object label and global object label and abstract filter
+            domains[4 * size] = mContext.mkArraySort(mContext.mkIntSort(), bv64);
+            Arrays.fill(domains, 4 * size + 1, 4 * size + 5, mContext.mkArraySort(mContext.mkIntSort(), bool));
+            return domains;
+        }
+        final int heap = slots != null ? slots.length : localHeapSize;
+        Sort[] domains = new Sort[4 * size + 5 * heap + (slots != null ? 1 : 0)];
+        // argument + register + result register
+        Arrays.fill(domains, 0, size, bv64);
+        // high value and local object label and global object label
+        Arrays.fill(domains, size, 4 * size, bool);
+        // local heap entries
+        Arrays.fill(domains, 4 * size, 4 * size + heap, bv64);
+        // high value and local object label and global object label and abstract filter, filter of the other slots
+        Arrays.fill(domains, 4 * size + heap, domains.length, bool);
+        return domains;
+    }
+
+    private FuncDecl rPredDef(String c, String m, int pc, int size) {
+        try {
+            // rPredDef
+            String funcName = rPredName(c, m, pc);
+            final String key = funcName + '/' + size;
+            FuncDecl cached = relationCache.get(key);
+            if (cached != null) {
+                relationCacheHits++;
+                return cached;
+            }
+            Sort[] domains = domains(size, heapSlots.get(c + '_' + m));
             FuncDecl f = mContext.mkFuncDecl(funcName, domains, mContext.mkBoolSort());
             this.declareRel(f);
+            relationCache.put(key, f);
             return f;
         } catch (Z3Exception e) {
             e.printStackTrace();
@@ -452,25 +1458,7 @@ public class FSEngine extends Z3Clauses {
             noChanges = true;
         }
         Expr[] e = new Expr[4 * size + 5 * this.localHeapSize];
-        for (int i = 0, j = size, k = 2 * size, l = 3 * size; i < size; i++, j++, k++, l++) {
-            e[i] = rUp.get(i);
-            if (e[i] == null) {
-                e[i] = var.getV(i);
-            }
-            e[j] = rUpHigh.get(i);
-            if (e[j] == null) {
-                e[j] = var.getH(i);
-            }
-            e[k] = rUpLocal.get(i);
-            if (e[k] == null) {
-                e[k] = var.getL(i);
-            }
-            e[l] = rUpGlobal.get(i);
-            if (e[l] == null) {
-                e[l] = var.getG(i);
-            }
-        }
-        ;
+        fillRegisters(e, size, rUp, rUpHigh, rUpLocal, rUpGlobal);
         for (int loop = 0,  i = 4 * size, j = 4 * size + this.localHeapSize, k = 4 * size
                 + 2 * this.localHeapSize, l = 4 * size + 3 * this.localHeapSize, n = 4 * size
                      + 4 * this.localHeapSize; loop < this.localHeapSize; loop++, i++, j++, k++, l++, n++) {
@@ -501,6 +1489,32 @@ public class FSEngine extends Z3Clauses {
         return e;
     }
 
+    /*
+     * The 4 * size register expressions at the start of e, the registers that are not updated keep their variable
+     */
+    private void fillRegisters(final Expr[] e, final int size, final Map<Integer, BitVecExpr> rUp,
+                               final Map<Integer, BoolExpr> rUpHigh, final Map<Integer, BoolExpr> rUpLocal,
+                               final Map<Integer, BoolExpr> rUpGlobal) {
+        for (int i = 0, j = size, k = 2 * size, l = 3 * size; i < size; i++, j++, k++, l++) {
+            e[i] = rUp.get(i);
+            if (e[i] == null) {
+                e[i] = var.getV(i);
+            }
+            e[j] = rUpHigh.get(i);
+            if (e[j] == null) {
+                e[j] = var.getH(i);
+            }
+            e[k] = rUpLocal.get(i);
+            if (e[k] == null) {
+                e[k] = var.getL(i);
+            }
+            e[l] = rUpGlobal.get(i);
+            if (e[l] == null) {
+                e[l] = var.getG(i);
+            }
+        }
+    }
+
     public BoolExpr rPred(final String c, final String m, final int pc, final Map<Integer, BitVecExpr> rUp,
                           final Map<Integer, BoolExpr> rUpHigh, final Map<Integer, BoolExpr> rUpLocal,
                           final Map<Integer, BoolExpr> rUpGlobal, final Map<Integer, BitVecExpr> lHValues,
@@ -509,7 +1523,8 @@ public class FSEngine extends Z3Clauses {
                           final int numReg) {
         try {
             int size = numArg + numReg + 1; // include return register
-            FuncDecl r = this.rPredDef(c, m, pc, size);
+            final int[] kept = projection(c, m, pc, numArg, numReg);
+            FuncDecl r = this.rPredDef(c, m, pc, kept != null ? kept.length : size);
 
             /*Expr[] e = new Expr[4 * size + 5 * this.localHeapSize];
             for (int i = 0, j = size, k = 2 * size, l = 3 * size; i < size; i++, j++, k++, l++) {
@@ -556,6 +1571,12 @@ public class FSEngine extends Z3Clauses {
                 }
             }*/
 
+            if (var.hasHeapArrays()) {
+                final Expr[] registers = new Expr[4 * size];
+                fillRegisters(registers, size, rUp, rUpHigh, rUpLocal, rUpGlobal);
+                return (BoolExpr) r.apply(heapArrays(registers, kept, size, lHValues, lHHigh, lHLocal, lHGlobal,
+                        lHFilter));
+            }
             Expr[] e = getExpressions(rUp,
                     rUpHigh, rUpLocal,
                     rUpGlobal, lHValues,
@@ -563,6 +1584,11 @@ public class FSEngine extends Z3Clauses {
                     lHGlobal, lHFilter, numArg,
                     numReg);
             ;
+            final int[] slots = heapSlots.get(c + '_' + m);
+            if (kept != null || slots != null) {
+                e = project(e, kept, size, slots,
+                        slots != null ? outsideFilter(heapSlices.get(c + '_' + m), lHFilter, var.getLHO()) : null);
+            }
             BoolExpr rez = (BoolExpr) r.apply(e);
 
             return rez;
@@ -580,9 +1606,10 @@ public class FSEngine extends Z3Clauses {
                                final int numReg, final int size) {
         try {
             int rsize = numArg + numReg + 1; // include return register
-            FuncDecl r = this.rPredDef(c, m, pc, rsize);
+            final int[] kept = projection(c, m, pc, numArg, numReg);
+            FuncDecl r = this.rPredDef(c, m, pc, kept != null ? kept.length : rsize);
 
-            Expr[] e = new Expr[4 * rsize + 5 * this.localHeapSize];
+            Expr[] e = new Expr[4 * rsize + (var.hasHeapArrays() ? 0 : 5 * this.localHeapSize)];
             for (int i = 0, j = rsize, k = 2 * rsize, l = 3 * rsize; i < rsize; i++, j++, k++, l++) {
                 e[i] = rUp.get(i);
                 if (e[i] == null) {
@@ -601,7 +1628,10 @@ public class FSEngine extends Z3Clauses {
                     e[l] = this.mkFalse();
                 }
             }
-            ;
+            if (var.hasHeapArrays()) {
+                // nothing is lifted yet when the method starts
+                return (BoolExpr) r.apply(heapArrays(e, kept, rsize, lHValues, lHHigh, lHLocal, lHGlobal, null));
+            }
             for (int loop = 0, i = 4 * rsize, j = 4 * rsize + this.localHeapSize, k = 4 * rsize
                     + 2 * this.localHeapSize, l = 4 * rsize + 3 * this.localHeapSize, n = 4 * rsize
                          + 4 * this.localHeapSize; loop < this.localHeapSize; loop++, i++, j++, k++, l++, n++) {
@@ -625,6 +1655,11 @@ public class FSEngine extends Z3Clauses {
 
             }
             ;
+            final int[] slots = heapSlots.get(c + '_' + m);
+            if (kept != null || slots != null) {
+                // nothing is lifted yet when the method starts
+                e = project(e, kept, rsize, slots, slots != null ? this.mkFalse() : null);
+            }
 
             return (BoolExpr) r.apply(e);
         } catch (Z3Exception e) {
@@ -635,21 +1670,21 @@ public class FSEngine extends Z3Clauses {
 
     private FuncDecl resPredDef(String c, String m, int size) {
         try {
-            BitVecSort bv64 = mContext.mkBitVecSort(bvSize);
             BoolSort bool = mContext.mkBoolSort();
 
             String funcName = "RES_" + c + '_' + m;
-            Sort[] domains = new Sort[4 * size + 5 * localHeapSize];
-            Arrays.fill(domains, 0, size, bv64); // argument + register + result register
-            Arrays.fill(domains, size, 4 * size, bool); // high value + local object label + global object label
-            Arrays.fill(domains, 4 * size, 4 * size + localHeapSize, bv64);
-            // local + heap + entries
-            Arrays.fill(domains, 4 * size + localHeapSize, 4 * size + 5 * localHeapSize, bool);
-            // high value and local object label and global object label and abstract filter
+            final String key = funcName + '/' + size;
+            FuncDecl cached = relationCache.get(key);
+            if (cached != null) {
+                relationCacheHits++;
+                return cached;
+            }
+            Sort[] domains = domains(size, heapSlots.get(c + '_' + m));
 
             FuncDecl f = mContext.mkFuncDecl(funcName, domains, bool);
 
             this.declareRel(f);
+            relationCache.put(key, f);
             return f;
         } catch (Z3Exception e) {
             e.printStackTrace();
@@ -666,26 +1701,14 @@ public class FSEngine extends Z3Clauses {
             int size = numArg + 1; // include return register
             FuncDecl res = this.resPredDef(c, m, size);
 
-            Expr[] e = new Expr[4 * size + 5 * this.localHeapSize];
-            for (int i = 0, j = size, k = 2 * size, l = 3 * size; i < size; i++, j++, k++, l++) {
-                e[i] = rUp.get(i);
-                if (e[i] == null) {
-                    e[i] = var.getV(i);
-                }
-                e[j] = rUpHigh.get(i);
-                if (e[j] == null) {
-                    e[j] = var.getH(i);
-                }
-                e[k] = rUpLocal.get(i);
-                if (e[k] == null) {
-                    e[k] = var.getL(i);
-                }
-                e[l] = rUpGlobal.get(i);
-                if (e[l] == null) {
-                    e[l] = var.getG(i);
-                }
+            if (var.hasHeapArrays()) {
+                final Expr[] registers = new Expr[4 * size];
+                fillRegisters(registers, size, rUp, rUpHigh, rUpLocal, rUpGlobal);
+                return (BoolExpr) res.apply(heapArrays(registers, null, size, lHValues, lHHigh, lHLocal, lHGlobal,
+                        lHFilter));
             }
-            ;
+            Expr[] e = new Expr[4 * size + 5 * this.localHeapSize];
+            fillRegisters(e, size, rUp, rUpHigh, rUpLocal, rUpGlobal);
 
             for (int loop = 0, i = 4 * size, j = 4 * size + this.localHeapSize, k = 4 * size
                     + 2 * this.localHeapSize, l = 4 * size + 3 * this.localHeapSize, n = 4 * size
@@ -713,6 +1736,10 @@ public class FSEngine extends Z3Clauses {
             }
             ;
             //this.addQuery(new Z3Query((BoolExpr) res.apply(e), c + ' ' + m , true, c, m, "rez", ""));
+            final int[] slots = heapSlots.get(c + '_' + m);
+            if (slots != null) {
+                e = project(e, null, size, slots, outsideFilter(heapSlices.get(c + '_' + m), lHFilter, var.getLHO()));
+            }
 
             return (BoolExpr) res.apply(e);
         } catch (Z3Exception e) {
@@ -780,6 +1807,14 @@ public class FSEngine extends Z3Clauses {
             BoolSort bool = mContext.mkBoolSort();
 
             String funcName = "ReachLH";
+            if (var.hasHeapArrays()) {
+                // local heap entries and local object labels as arrays
+                FuncDecl f = mContext.mkFuncDecl(funcName, new Sort[]{bv64, bv64,
+                        mContext.mkArraySort(mContext.mkIntSort(), bv64),
+                        mContext.mkArraySort(mContext.mkIntSort(), bool)}, mContext.mkBoolSort());
+                this.declareRel(f);
+                return f;
+            }
             Sort[] domains = new Sort[2 + 2 * localHeapSize];
             // location v_1 (starting point)
             Arrays.fill(domains, 0, 1, bv64);
@@ -802,6 +1837,9 @@ public class FSEngine extends Z3Clauses {
     public BoolExpr reachLHPred(BitVecExpr vi, BitVecExpr vr, final Map<Integer, BitVecExpr> lHValues, final Map<Integer, BoolExpr> lHLocal) {
         try {
             FuncDecl rlh = func.getReachLH();
+            if (var.hasHeapArrays()) {
+                return (BoolExpr) rlh.apply(vi, vr, heapArray(lHValues, 0), heapArray(lHLocal, 2));
+            }
 
             Expr[] e = new Expr[2 + 2 * this.localHeapSize];
             e[0] = vi;
@@ -844,6 +1882,15 @@ public class FSEngine extends Z3Clauses {
             BoolSort bool = mContext.mkBoolSort();
 
             String funcName = "CFilter";
+            if (var.hasHeapArrays()) {
+                // local heap entries, local heap local labels and abstract filter labels as arrays
+                FuncDecl f = mContext.mkFuncDecl(funcName, new Sort[]{bv64, bool,
+                        mContext.mkArraySort(mContext.mkIntSort(), bv64),
+                        mContext.mkArraySort(mContext.mkIntSort(), bool),
+                        mContext.mkArraySort(mContext.mkIntSort(), bool)}, mContext.mkBoolSort());
+                this.declareRel(f);
+                return f;
+            }
             Sort[] domains = new Sort[2 + 3 * localHeapSize];
             // value of v
             Arrays.fill(domains, 0, 1, bv64);
@@ -870,6 +1917,10 @@ public class FSEngine extends Z3Clauses {
     public BoolExpr cFilterPred(BitVecExpr v, BoolExpr b, final Map<Integer, BitVecExpr> lHValues, final Map<Integer, BoolExpr> lHLocal, final Map<Integer, BoolExpr> lHFilter) {
         try {
             FuncDecl rlh = func.getCFilter();
+            if (var.hasHeapArrays()) {
+                return (BoolExpr) rlh.apply(v, b, heapArray(lHValues, 0), heapArray(lHLocal, 2),
+                        heapArray(lHFilter, 4));
+            }
 
             Expr[] e = new Expr[2 + 3 * this.localHeapSize];
             e[0] = v;
@@ -34,6 +34,8 @@ public class FSVariable {
     final private Map<Integer, BitVecExpr> bitVecBound;
     final private Map<Integer, BoolExpr> boolBound;
     private final int GUARD = 100;
+    // first of the ten bound variable indices reserved for the local heap arrays, below GUARD
+    private final int HEAP_ARRAYS = 26;
     public final int MAX_REGISTER = 68;
     public int MAX_LOCALHEAP = 0;
 
@@ -47,6 +49,12 @@ public class FSVariable {
     //TODO: Those variables are not the correct one for the FS analysis!
     private final BitVecExpr rez, rezp, buf, bufp, f, fpp, vfp, cn, val;
     private final BoolExpr lrez, hrez, grez, lrezp, lbuf, lbufp, lfp, bfp, lf, bf, lval, bval;
+    // filter of the local heap slots a heap slice leaves out, and its copy
+    private final BoolExpr lho, lhco;
+    // local heap components LHV, LHH, LHL, LHG, LHF as arrays indexed by slot, followed by their copies;
+    // null when the local heap has one variable per slot
+    private ArrayExpr[] heapArrays;
+    private final Map<Integer, Expr> heapSelects = new HashMap<>();
     private final IntExpr fnum, cnum;
 
     public FSVariable(Context ctx, int bvSize) throws Z3Exception {
@@ -82,6 +90,8 @@ public class FSVariable {
         this.lval = (BoolExpr) ctx.mkBound(19, bool);
         this.bval = (BoolExpr) ctx.mkBound(20, bool);
         this.cnum = (IntExpr) ctx.mkBound(21, integer);
+        this.lho = (BoolExpr) ctx.mkBound(22, bool);
+        this.lhco = (BoolExpr) ctx.mkBound(23, bool);
 
     }
 
@@ -90,6 +100,50 @@ public class FSVariable {
         this.MAX_LOCALHEAP = localHeapSize;
     }
 
+    /*
+     * Represent each local heap component by one array variable indexed by slot, the slot variables
+     * become selects of the arrays
+     */
+    public void initializeArrays() {
+        try {
+            final ArraySort values = ctx.mkArraySort(ctx.mkIntSort(), bv64);
+            final ArraySort labels = ctx.mkArraySort(ctx.mkIntSort(), bool);
+            this.heapArrays = new ArrayExpr[10];
+            for (int k = 0; k < 10; k++) {
+                heapArrays[k] = (ArrayExpr) ctx.mkBound(HEAP_ARRAYS + k, k % 5 == 0 ? values : labels);
+            }
+        } catch (Z3Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("initializeArrays");
+        }
+    }
+
+    public boolean hasHeapArrays() {
+        return heapArrays != null;
+    }
+
+    /*
+     * Array of the local heap component k: 0 to 4 for LHV, LHH, LHL, LHG, LHF and 5 to 9 for their copies
+     */
+    public ArrayExpr getHeapArray(int k) {
+        return heapArrays[k];
+    }
+
+    private Expr heapSelect(int k, int i) {
+        try {
+            final Expr cached = heapSelects.get(10 * i + k);
+            if (cached != null) {
+                return cached;
+            }
+            final Expr expr = ctx.mkSelect(heapArrays[k], ctx.mkInt(i));
+            heapSelects.put(10 * i + k, expr);
+            return expr;
+        } catch (Z3Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("heapSelect");
+        }
+    }
+
 
     public BitVecExpr getRez() {
         return rez;
@@ -183,6 +237,14 @@ public class FSVariable {
         return cnum;
     }
 
+    public BoolExpr getLHO() {
+        return lho;
+    }
+
+    public BoolExpr getLHCO() {
+        return lhco;
+    }
+
     // TODO:
     // cache vs remake
     public BitVecExpr getV(int i) {
@@ -293,6 +355,9 @@ public class FSVariable {
 
     // Local Heap variables
     public BitVecExpr getLHV(int i) {
+        if (heapArrays != null) {
+            return (BitVecExpr) heapSelect(0, i);
+        }
         try {
             // if (i < 0) return ctx.mkBV(-1*i, bv64);
             if (bitVecBound.size() != 0){
@@ -320,6 +385,9 @@ public class FSVariable {
     }
 
     public BoolExpr getLHH(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(1, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * i + 1);
@@ -346,6 +414,9 @@ public class FSVariable {
     }
 
     public BoolExpr getLHL(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(2, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * i + 2);
@@ -372,6 +443,9 @@ public class FSVariable {
     }
 
     public BoolExpr getLHG(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(3, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * i + 3);
@@ -398,6 +472,9 @@ public class FSVariable {
     }
 
     public BoolExpr getLHF(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(4, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * i + 4);
@@ -425,6 +502,9 @@ public class FSVariable {
 
     // Copie of local heap variables
     public BitVecExpr getLHCV(int i) {
+        if (heapArrays != null) {
+            return (BitVecExpr) heapSelect(5, i);
+        }
         try {
             // if (i < 0) return ctx.mkBV(-1*i, bv64);
 
@@ -453,6 +533,9 @@ public class FSVariable {
     }
 
     public BoolExpr getLHCH(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(6, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * MAX_LOCALHEAP + 5 * i + 1);
@@ -479,6 +562,9 @@ public class FSVariable {
     }
 
     public BoolExpr getLHCL(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(7, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * MAX_LOCALHEAP + 5 * i + 2);
@@ -505,6 +591,9 @@ public class FSVariable {
     }
 
     public BoolExpr getLHCG(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(8, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * MAX_LOCALHEAP + 5 * i + 3);
@@ -534,6 +623,9 @@ public class FSVariable {
      * This can be called with values greater than localHeapSize without overlapping.
      */
     public BoolExpr getLHCF(int i) {
+        if (heapArrays != null) {
+            return (BoolExpr) heapSelect(9, i);
+        }
         try {
             if (boolBound.size() != 0){
                 final BoolExpr expr = boolBound.get(GUARD + 4 * MAX_REGISTER + 5 * MAX_LOCALHEAP + 5 * i + 4);
@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Fixedpoint;
+import com.microsoft.z3.Native;
+import com.microsoft.z3.Z3Exception;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Reads the statistics of a fixedpoint, which the bundled binding does not expose: Native has public accessors
+ * but the context and object handles they take are only reachable through the package-private
+ * Context.nCtx() and Z3Object.getNativeObject(), which are called here by reflection. A binding where
+ * these methods are missing or inaccessible gives a Z3Exception, the statistics are then not recorded.
+ * The native statistics object is released here rather than left to the finalizer.
+ */
+final class FixedpointStatistics {
+
+    private static Method contextHandle;
+    private static Method objectHandle;
+
+    private FixedpointStatistics() {
+
+    }
+
+    /*
+     * The counters and timers of the last queries run on fixedpoint, by Z3 statistic name
+     */
+    static Map<String, Double> get(final Context context, final Fixedpoint fixedpoint) {
+        final long ctx = handle(contextHandle(), context);
+        final long stats = Native.fixedpointGetStatistics(ctx, handle(objectHandle(), fixedpoint));
+        Native.statsIncRef(ctx, stats);
+        try {
+            final Map<String, Double> statistics = new TreeMap<>();
+            final int size = Native.statsSize(ctx, stats);
+            for (int i = 0; i < size; i++) {
+                final String key = Native.statsGetKey(ctx, stats, i);
+                if (Native.statsIsUint(ctx, stats, i)) {
+                    // unsigned on the native side
+                    statistics.put(key, (double) (Native.statsGetUintValue(ctx, stats, i) & 0xffffffffL));
+                } else if (Native.statsIsDouble(ctx, stats, i)) {
+                    statistics.put(key, Native.statsGetDoubleValue(ctx, stats, i));
+                }
+            }
+            return statistics;
+        } finally {
+            Native.statsDecRef(ctx, stats);
+        }
+    }
+
+    private static synchronized Method contextHandle() {
+        if (contextHandle == null) {
+            contextHandle = accessible(Context.class, "nCtx");
+        }
+        return contextHandle;
+    }
+
+    private static synchronized Method objectHandle() {
+        if (objectHandle == null) {
+            try {
+                objectHandle = accessible(Class.forName("com.microsoft.z3.Z3Object"), "getNativeObject");
+            } catch (ClassNotFoundException e) {
+                throw new Z3Exception("FixedpointStatistics Failed: " + e.getMessage());
+            }
+        }
+        return objectHandle;
+    }
+
+    private static Method accessible(final Class<?> type, final String name) {
+        try {
+            final Method method = type.getDeclaredMethod(name);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException | RuntimeException e) {
+            throw new Z3Exception("FixedpointStatistics Failed: " + e);
+        }
+    }
+
+    private static long handle(final Method method, final Object target) {
+        try {
+            return (Long) method.invoke(target);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new Z3Exception("FixedpointStatistics Failed: " + e);
+        }
+    }
+}
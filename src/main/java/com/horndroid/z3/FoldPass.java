@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Simplify the terms of every rule: constraints that simplify to true are dropped and a rule with a
+ * constraint that simplifies to false is dropped, it can never apply
+ */
+class FoldPass implements ClausePass {
+
+    @Override
+    public String getName() {
+        return "fold";
+    }
+
+    @Override
+    public HornProgram apply(final HornProgram program, final Context ctx) {
+        final List<HornRule> rules = new ArrayList<>(program.rules.size());
+        for (HornRule rule : program.rules) {
+            if (rule.opaque) {
+                rules.add(rule);
+                continue;
+            }
+            boolean changed = false;
+            boolean infeasible = false;
+            final List<Expr> constraints = new ArrayList<>(rule.constraints.size());
+            for (Expr constraint : rule.constraints) {
+                final Expr folded = constraint.simplify();
+                changed |= folded.getId() != constraint.getId();
+                if (folded.isFalse()) {
+                    infeasible = true;
+                    break;
+                }
+                if (!folded.isTrue()) {
+                    constraints.add(folded);
+                } else {
+                    changed = true;
+                }
+            }
+            if (infeasible) continue;
+            final List<Expr> atoms = new ArrayList<>(rule.atoms.size());
+            for (Expr atom : rule.atoms) {
+                final Expr folded = foldAtom(atom);
+                changed |= folded != atom;
+                atoms.add(folded);
+            }
+            final Expr head = foldAtom(rule.head);
+            changed |= head != rule.head;
+            rules.add(changed ? rule.rewrite(head, atoms, constraints) : rule);
+        }
+        return program.withRules(rules);
+    }
+
+    /*
+     * Atom with simplified arguments, the atom itself if nothing changed
+     */
+    private static Expr foldAtom(final Expr atom) {
+        final Expr folded = atom.simplify();
+        if (folded.getId() == atom.getId() || !HornRule.isAtom(folded)) {
+            return atom;
+        }
+        return folded;
+    }
+}
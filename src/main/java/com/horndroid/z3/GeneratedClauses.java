@@ -0,0 +1,46 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.FuncDecl;
+
+import java.util.List;
+
+/*
+ * Relations, rules and queries generated by a worker engine, already translated into the context of
+ * the engine they are destined to. They are added to that engine with FSEngine.addClauses.
+ */
+public class GeneratedClauses {
+    final List<FuncDecl> funcs;
+    final List<BoolExpr> rules;
+    final List<Z3Query> queries;
+
+    GeneratedClauses(final List<FuncDecl> funcs, final List<BoolExpr> rules, final List<Z3Query> queries) {
+        this.funcs = funcs;
+        this.rules = rules;
+        this.queries = queries;
+    }
+}
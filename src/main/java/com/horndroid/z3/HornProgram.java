@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.FuncDecl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Horn clauses of an analysis in the clause IR: the rules, the declared relations and the keys of the
+ * relations the queries ask about. Passes return a new program, the rules they don't touch are shared.
+ */
+final class HornProgram {
+    final List<HornRule> rules;
+    final List<FuncDecl> relations;
+    final Set<String> queried;
+
+    HornProgram(final List<HornRule> rules, final List<FuncDecl> relations, final Set<String> queried) {
+        this.rules = rules;
+        this.relations = relations;
+        this.queried = queried;
+    }
+
+    static HornProgram of(final List<BoolExpr> rules, final List<FuncDecl> relations, final List<Z3Query> queries) {
+        final List<HornRule> horn = new ArrayList<>(rules.size());
+        for (BoolExpr rule : rules) {
+            horn.add(HornRule.of(rule));
+        }
+        final Set<String> queried = new HashSet<>();
+        for (Z3Query query : queries) {
+            HornRule.collectRelations(query.getQuery(), queried);
+        }
+        return new HornProgram(horn, new ArrayList<>(relations), queried);
+    }
+
+    HornProgram withRules(final List<HornRule> rules) {
+        return new HornProgram(rules, relations, queried);
+    }
+
+    boolean hasOpaqueRules() {
+        for (HornRule rule : rules) {
+            if (rule.opaque) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Z3 rules of the program, rewritten rules are built in ctx
+     */
+    List<BoolExpr> lower(final Context ctx) {
+        final List<BoolExpr> lowered = new ArrayList<>(rules.size());
+        for (HornRule rule : rules) {
+            lowered.add(rule.lower(ctx));
+        }
+        return lowered;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.*;
+
+import java.util.*;
+
+/*
+ * Rule of the clause IR: the head relation atom, the relation atoms that are conjuncts of the body and the
+ * remaining conjuncts (constraints). Terms stay Z3 expressions over de Bruijn variables, only the structure
+ * of the rule is kept on the Java side so that passes can rewrite it without going through Z3.
+ * A rule whose head is not a relation, or that is quantified, is opaque: passes keep it as it is.
+ */
+final class HornRule {
+    // rule as generated, lowered as it is while the rule is not rewritten
+    final BoolExpr source;
+    final Expr head;
+    final List<Expr> atoms;
+    final List<Expr> constraints;
+    final boolean opaque;
+    private final boolean rewritten;
+
+    private HornRule(final BoolExpr source, final Expr head, final List<Expr> atoms, final List<Expr> constraints,
+                     final boolean opaque, final boolean rewritten) {
+        this.source = source;
+        this.head = head;
+        this.atoms = atoms;
+        this.constraints = constraints;
+        this.opaque = opaque;
+        this.rewritten = rewritten;
+    }
+
+    static HornRule of(final BoolExpr rule) {
+        final List<Expr> atoms = new ArrayList<>();
+        final List<Expr> constraints = new ArrayList<>();
+        if (rule instanceof Quantifier) {
+            return new HornRule(rule, null, atoms, constraints, true, false);
+        }
+        Expr head = rule;
+        if (head.isApp() && head.isImplies()) {
+            final Expr[] args = head.getArgs();
+            head = args[1];
+            flatten(args[0], atoms, constraints);
+        }
+        if (!isAtom(head)) {
+            return new HornRule(rule, null, new ArrayList<Expr>(), new ArrayList<Expr>(), true, false);
+        }
+        return new HornRule(rule, head, atoms, constraints, false, false);
+    }
+
+    /*
+     * Same rule with another head, body atoms and constraints
+     */
+    HornRule rewrite(final Expr head, final List<Expr> atoms, final List<Expr> constraints) {
+        return new HornRule(null, head, atoms, constraints, false, true);
+    }
+
+    /*
+     * Z3 rule: the generated rule if it was not rewritten, otherwise body => head
+     */
+    BoolExpr lower(final Context ctx) {
+        if (!rewritten) {
+            return source;
+        }
+        final List<BoolExpr> body = new ArrayList<>(atoms.size() + constraints.size());
+        for (Expr atom : atoms) {
+            body.add((BoolExpr) atom);
+        }
+        for (Expr constraint : constraints) {
+            body.add((BoolExpr) constraint);
+        }
+        if (body.isEmpty()) {
+            return (BoolExpr) head;
+        }
+        final BoolExpr conjunction = body.size() == 1 ? body.get(0) : ctx.mkAnd(body.toArray(new BoolExpr[0]));
+        return ctx.mkImplies(conjunction, (BoolExpr) head);
+    }
+
+    /*
+     * Relation name and arity, the key the relations are registered with
+     */
+    static String key(final FuncDecl relation) {
+        return relation.getName().toString() + '/' + relation.getDomainSize();
+    }
+
+    static boolean isAtom(final Expr e) {
+        return e.isApp() && RuleDependencyGraph.isRelation(e.getFuncDecl());
+    }
+
+    /*
+     * Keys of the relations applied anywhere in e, shared sub-terms are visited once
+     */
+    static void collectRelations(final Expr e, final Set<String> found) {
+        final Set<Integer> seen = new HashSet<>();
+        final Deque<Expr> stack = new ArrayDeque<>();
+        stack.push(e);
+        while (!stack.isEmpty()) {
+            final Expr x = stack.pop();
+            if (!seen.add(x.getId())) continue;
+            if (x instanceof Quantifier) {
+                stack.push(((Quantifier) x).getBody());
+                continue;
+            }
+            if (!x.isApp()) continue;
+            if (isAtom(x)) {
+                found.add(key(x.getFuncDecl()));
+            }
+            for (Expr arg : x.getArgs()) {
+                stack.push(arg);
+            }
+        }
+    }
+
+    /*
+     * Free variables of e: de Bruijn index -> sort
+     */
+    static void collectVariables(final Expr e, final Map<Integer, Sort> found) {
+        final Set<Integer> seen = new HashSet<>();
+        final Deque<Expr> stack = new ArrayDeque<>();
+        stack.push(e);
+        while (!stack.isEmpty()) {
+            final Expr x = stack.pop();
+            if (!seen.add(x.getId())) continue;
+            if (x.isVar()) {
+                found.put(x.getIndex(), x.getSort());
+            } else if (x.isApp()) {
+                for (Expr arg : x.getArgs()) {
+                    stack.push(arg);
+                }
+            }
+        }
+    }
+
+    /*
+     * Variables of the head, atoms and constraints
+     */
+    Map<Integer, Sort> variables() {
+        final Map<Integer, Sort> found = new HashMap<>();
+        collectVariables(head, found);
+        for (Expr atom : atoms) {
+            collectVariables(atom, found);
+        }
+        for (Expr constraint : constraints) {
+            collectVariables(constraint, found);
+        }
+        return found;
+    }
+
+    private static void flatten(final Expr e, final List<Expr> atoms, final List<Expr> constraints) {
+        if (e.isApp() && e.isAnd()) {
+            for (Expr arg : e.getArgs()) {
+                flatten(arg, atoms, constraints);
+            }
+        } else if (isAtom(e)) {
+            atoms.add(e);
+        } else {
+            constraints.add(e);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.Sort;
+
+import java.util.*;
+
+/*
+ * Inline the relations defined by a single non-recursive rule and used in a single rule body: the use is
+ * resolved with the defining rule, and the relation and its rule disappear. To keep the resolution a plain
+ * substitution, either the head of the defining rule or the atom of the use must have distinct variables as
+ * arguments. Queried relations and relations used other than as a body atom are kept.
+ */
+class InlinePass implements ClausePass {
+
+    private final String name;
+    // names of the relations that may be inlined, null for any relation
+    private final Set<String> only;
+
+    InlinePass() {
+        this("inline", null);
+    }
+
+    InlinePass(final String name, final Set<String> only) {
+        this.name = name;
+        this.only = only;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public HornProgram apply(final HornProgram program, final Context ctx) {
+        final int n = program.rules.size();
+        final Set<String> blocked = new HashSet<>(program.queried);
+        final Map<String, Integer> uses = new HashMap<>();
+        final Map<String, Integer> usedIn = new HashMap<>();
+        final Map<String, List<Integer>> definedIn = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            final HornRule rule = program.rules.get(i);
+            if (rule.opaque) {
+                HornRule.collectRelations(rule.source, blocked);
+                continue;
+            }
+            final String head = HornRule.key(rule.head.getFuncDecl());
+            List<Integer> defining = definedIn.get(head);
+            if (defining == null) {
+                defining = new ArrayList<>();
+                definedIn.put(head, defining);
+            }
+            defining.add(i);
+            for (Expr arg : rule.head.getArgs()) {
+                HornRule.collectRelations(arg, blocked);
+            }
+            for (Expr atom : rule.atoms) {
+                final String key = HornRule.key(atom.getFuncDecl());
+                uses.put(key, uses.containsKey(key) ? uses.get(key) + 1 : 1);
+                usedIn.put(key, i);
+                for (Expr arg : atom.getArgs()) {
+                    HornRule.collectRelations(arg, blocked);
+                }
+            }
+            for (Expr constraint : rule.constraints) {
+                HornRule.collectRelations(constraint, blocked);
+            }
+        }
+
+        final HornRule[] current = program.rules.toArray(new HornRule[n]);
+        // rule a removed rule was inlined into, -1 for the rules still there
+        final int[] forward = new int[n];
+        Arrays.fill(forward, -1);
+        final Set<String> inlined = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            final HornRule rule = program.rules.get(i);
+            if (rule.opaque) continue;
+            final String key = HornRule.key(rule.head.getFuncDecl());
+            if (blocked.contains(key) || definedIn.get(key).size() != 1 || !uses.containsKey(key)
+                    || uses.get(key) != 1) continue;
+            if (only != null && !only.contains(rule.head.getFuncDecl().getName().toString())) continue;
+            final int d = resolve(forward, i);
+            final int u = resolve(forward, usedIn.get(key));
+            if (d == u || usesRelation(current[d], key)) continue;
+            final Expr use = useOf(current[u], key);
+            if (hasVariableArgs(current[d].head)) {
+                current[u] = inlineIntoUse(current[u], use, current[d], ctx);
+            } else if (hasVariableArgs(use)) {
+                current[u] = inlineDefinition(current[u], use, current[d], ctx);
+            } else {
+                continue;
+            }
+            current[d] = null;
+            forward[d] = u;
+            inlined.add(key);
+        }
+        if (inlined.isEmpty()) {
+            return program;
+        }
+
+        final List<HornRule> rules = new ArrayList<>(n - inlined.size());
+        for (HornRule rule : current) {
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+        final List<FuncDecl> relations = new ArrayList<>(program.relations.size());
+        for (FuncDecl relation : program.relations) {
+            if (!inlined.contains(HornRule.key(relation))) {
+                relations.add(relation);
+            }
+        }
+        return new HornProgram(rules, relations, program.queried);
+    }
+
+    private static int resolve(final int[] forward, int rule) {
+        while (forward[rule] >= 0) {
+            rule = forward[rule];
+        }
+        return rule;
+    }
+
+    /*
+     * True if the arguments of the atom are distinct variables
+     */
+    private static boolean hasVariableArgs(final Expr atom) {
+        final Set<Integer> indices = new HashSet<>();
+        for (Expr arg : atom.getArgs()) {
+            if (!arg.isVar() || !indices.add(arg.getIndex())) return false;
+        }
+        return true;
+    }
+
+    private static boolean usesRelation(final HornRule rule, final String key) {
+        for (Expr atom : rule.atoms) {
+            if (HornRule.key(atom.getFuncDecl()).equals(key)) return true;
+        }
+        return false;
+    }
+
+    private static Expr useOf(final HornRule user, final String key) {
+        for (Expr atom : user.atoms) {
+            if (HornRule.key(atom.getFuncDecl()).equals(key)) return atom;
+        }
+        throw new RuntimeException("InlinePass Failed: no use of " + key);
+    }
+
+    private static int maxVariable(final Map<Integer, Sort> variables) {
+        int size = 0;
+        for (int index : variables.keySet()) {
+            size = Math.max(size, index + 1);
+        }
+        return size;
+    }
+
+    /*
+     * Renaming of the variables of a rule to offset + index, the unused indices are filled with boolean variables
+     */
+    private static Expr[] shift(final Map<Integer, Sort> variables, final int offset, final Context ctx) {
+        final Expr[] to = new Expr[maxVariable(variables)];
+        for (int index = 0; index < to.length; index++) {
+            final Sort sort = variables.containsKey(index) ? variables.get(index) : ctx.mkBoolSort();
+            to[index] = ctx.mkBound(offset + index, sort);
+        }
+        return to;
+    }
+
+    /*
+     * Replace use in user by the body of definition, whose head has distinct variables as arguments: the head
+     * variables become the arguments of use, the other variables are renamed apart from the variables of user
+     */
+    private static HornRule inlineIntoUse(final HornRule user, final Expr use, final HornRule definition,
+                                          final Context ctx) {
+        final Expr[] to = shift(definition.variables(), maxVariable(user.variables()), ctx);
+        final Expr[] params = definition.head.getArgs();
+        final Expr[] args = use.getArgs();
+        for (int i = 0; i < params.length; i++) {
+            to[params[i].getIndex()] = args[i];
+        }
+        final List<Expr> atoms = new ArrayList<>();
+        for (Expr atom : user.atoms) {
+            if (atom != use) {
+                atoms.add(atom);
+            }
+        }
+        for (Expr atom : definition.atoms) {
+            atoms.add(atom.substituteVars(to));
+        }
+        final List<Expr> constraints = new ArrayList<>(user.constraints);
+        for (Expr constraint : definition.constraints) {
+            constraints.add(constraint.substituteVars(to));
+        }
+        return user.rewrite(user.head, atoms, constraints);
+    }
+
+    /*
+     * Replace use in user, which has distinct variables as arguments, by the body of definition: the variables
+     * of definition are renamed apart from the variables of user, and the variables of use become the head
+     * arguments of definition in the rest of user
+     */
+    private static HornRule inlineDefinition(final HornRule user, final Expr use, final HornRule definition,
+                                             final Context ctx) {
+        final Map<Integer, Sort> userVariables = user.variables();
+        final Expr[] renamed = shift(definition.variables(), maxVariable(userVariables), ctx);
+        final Expr[] to = shift(userVariables, 0, ctx);
+        final Expr[] params = use.getArgs();
+        final Expr[] args = definition.head.getArgs();
+        for (int i = 0; i < params.length; i++) {
+            to[params[i].getIndex()] = args[i].substituteVars(renamed);
+        }
+        final List<Expr> atoms = new ArrayList<>();
+        for (Expr atom : user.atoms) {
+            if (atom != use) {
+                atoms.add(atom.substituteVars(to));
+            }
+        }
+        for (Expr atom : definition.atoms) {
+            atoms.add(atom.substituteVars(renamed));
+        }
+        final List<Expr> constraints = new ArrayList<>();
+        for (Expr constraint : user.constraints) {
+            constraints.add(constraint.substituteVars(to));
+        }
+        for (Expr constraint : definition.constraints) {
+            constraints.add(constraint.substituteVars(renamed));
+        }
+        return user.rewrite(user.head.substituteVars(to), atoms, constraints);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Fixedpoint;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lifetime of the native Z3 objects. The Java wrapper only releases native memory when the garbage collector
+ * finalizes a wrapper object, hence every fixedpoint is created and disposed here as soon as its query is solved,
+ * and contexts are disposed when their analysis is over. In bounded mode at most a given number of fixedpoints,
+ * each holding a copy of the rules, are alive at once in the process, further ones wait for a release.
+ * The watermark is the largest resident set size seen when a fixedpoint was released.
+ */
+public final class NativeMemory {
+
+    private static final Logger LOGGER = LogManager.getLogger(NativeMemory.class);
+    private static final String PROC_STATUS = "/proc/self/status";
+    private static final AtomicInteger liveFixedpoints = new AtomicInteger(0);
+    private static final AtomicLong watermark = new AtomicLong(0);
+    private static Semaphore permits = null;
+    private static int maxLiveFixedpoints = 0;
+
+    private NativeMemory() {
+
+    }
+
+    /*
+     * Bound the number of live fixedpoints, 0 for no bound. Only takes effect while no fixedpoint is alive.
+     */
+    public static synchronized void setMaxLiveFixedpoints(final int max) {
+        if (max == maxLiveFixedpoints) return;
+        if (liveFixedpoints.get() > 0) {
+            LOGGER.warn("Bound of " + max + " live fixedpoints ignored, " + liveFixedpoints.get() + " are alive");
+            return;
+        }
+        maxLiveFixedpoints = max;
+        permits = max > 0 ? new Semaphore(max, true) : null;
+    }
+
+    private static synchronized Semaphore getPermits() {
+        return permits;
+    }
+
+    /*
+     * A new fixedpoint of ctx, waits in bounded mode until fewer than the bound are alive
+     */
+    static Fixedpoint mkFixedpoint(final Context ctx) {
+        final Semaphore semaphore = getPermits();
+        if (semaphore != null) {
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("NativeMemory Failed: interrupted waiting for a fixedpoint");
+            }
+        }
+        try {
+            final Fixedpoint fixedpoint = ctx.mkFixedpoint();
+            liveFixedpoints.incrementAndGet();
+            return fixedpoint;
+        } catch (RuntimeException e) {
+            if (semaphore != null) {
+                semaphore.release();
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Release a fixedpoint created by mkFixedpoint, null is ignored
+     */
+    static void dispose(final Fixedpoint fixedpoint) {
+        if (fixedpoint == null) return;
+        sample();
+        // the bound only changes while no fixedpoint is alive, this is the semaphore the fixedpoint was taken from
+        final Semaphore semaphore = getPermits();
+        fixedpoint.dispose();
+        liveFixedpoints.decrementAndGet();
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+
+    /*
+     * Flush the pending releases of the objects of ctx, it must not be used afterwards
+     */
+    static void dispose(final Context ctx) {
+        if (ctx != null) {
+            ctx.dispose();
+        }
+    }
+
+    public static int getLiveFixedpoints() {
+        return liveFixedpoints.get();
+    }
+
+    /*
+     * Largest resident set size in bytes seen so far, 0 when it can't be read
+     */
+    public static long getWatermark() {
+        return watermark.get();
+    }
+
+    /*
+     * Update the watermark with the current resident set size
+     */
+    public static long sample() {
+        final long resident = residentBytes();
+        long current = watermark.get();
+        while (resident > current && !watermark.compareAndSet(current, resident)) {
+            current = watermark.get();
+        }
+        return resident;
+    }
+
+    /*
+     * Resident set size of the process in bytes, Java heap and native memory, 0 when /proc is not available
+     */
+    private static long residentBytes() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(PROC_STATUS))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024L;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Solve the queries on several threads. Z3 contexts are not thread safe, hence every worker owns a
+ * context holding a translated copy of the rules, relations and queries. The translation is done
+ * on the calling thread before any worker starts, so the engine context is never shared.
+ */
+class ParallelQuerySolver {
+
+    private static final Logger LOGGER = LogManager.getLogger(ParallelQuerySolver.class);
+    private final List<Z3Query> queries;
+    private final boolean tillFirstLeak;
+    private final boolean session;
+    private final int timeout;
+    private final List<Worker> workers;
+    // rules and relations to load for each query, null to load all of them
+    private final List<RuleDependencyGraph.RuleSlice> slices;
+    // queries known to be unsatisfiable, they are not solved
+    private final BitSet skipped;
+    private final SolverConfiguration configuration;
+    private final String[] results;
+    // nanoseconds spent solving each query
+    private final long[] solveTimes;
+    // index of the next query to hand out
+    private final AtomicInteger nextQuery = new AtomicInteger(0);
+    // no query after this index needs to be solved anymore (first leak found)
+    private final AtomicInteger cutoff = new AtomicInteger(Integer.MAX_VALUE);
+
+    ParallelQuerySolver(final List<BoolExpr> rules, final List<FuncDecl> funcs, final List<Z3Query> queries,
+                        final int threads, final boolean tillFirstLeak, final boolean session, final int timeout,
+                        final List<RuleDependencyGraph.RuleSlice> slices, final BitSet skipped,
+                        final SolverConfiguration configuration) {
+        this.queries = queries;
+        this.configuration = configuration;
+        this.slices = slices;
+        this.skipped = skipped;
+        this.tillFirstLeak = tillFirstLeak;
+        this.session = session;
+        this.timeout = timeout;
+        this.results = new String[queries.size()];
+        this.solveTimes = new long[queries.size()];
+        this.workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(new Worker(rules, funcs));
+            }
+        } catch (Z3Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("ParallelQuerySolver Failed: translate");
+        }
+    }
+
+    /*
+     * Solve all queries and return the status strings in the original query order.
+     * A null entry means that the query was cancelled because an earlier query was a leak.
+     */
+    String[] solve() {
+        final ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try {
+            final List<Future<Void>> futures = executor.invokeAll(workers);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("ParallelQuerySolver Failed: interrupted");
+        } catch (ExecutionException e) {
+            LOGGER.error("Solving a query failed", e.getCause());
+            throw new RuntimeException("ParallelQuerySolver Failed: " + e.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+        // every worker is done, invokeAll waits for all of them
+        for (Worker worker : workers) {
+            worker.solverContext.dispose();
+        }
+        return results;
+    }
+
+    /*
+     * Nanoseconds spent solving each query, including the loading of its rules, valid once solve returned
+     */
+    long[] getSolveTimes() {
+        return solveTimes;
+    }
+
+    /*
+     * Stop solving any query, the remaining results stay null
+     */
+    void cancel() {
+        cancelAfter(-1);
+    }
+
+    /*
+     * Stop solving every query after the leak found at index
+     */
+    private void cancelAfter(final int index) {
+        int current = cutoff.get();
+        while (index < current && !cutoff.compareAndSet(current, index)) {
+            current = cutoff.get();
+        }
+        for (Worker worker : workers) {
+            if (worker.current > cutoff.get()) {
+                worker.ctx.interrupt();
+            }
+        }
+    }
+
+    private class Worker implements Callable<Void> {
+        private final SolverContext solverContext;
+        private final Context ctx;
+        // fixedpoint of the worker in session mode
+        private Fixedpoint fixedpoint;
+        private volatile int current = -1;
+
+        Worker(final List<BoolExpr> rules, final List<FuncDecl> funcs) {
+            this.solverContext = new SolverContext(rules, funcs, queries);
+            this.ctx = solverContext.ctx;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                solveQueries();
+            } finally {
+                NativeMemory.dispose(fixedpoint);
+                fixedpoint = null;
+            }
+            return null;
+        }
+
+        private void solveQueries() {
+            while (true) {
+                final int index = nextQuery.getAndIncrement();
+                if (index >= solverContext.queries.length) break;
+                current = index;
+                if (index > cutoff.get()) break;
+                if (skipped.get(index)) continue;
+                final RuleDependencyGraph.RuleSlice slice = slices != null ? slices.get(index) : null;
+                // a query interrupted by cancelAfter ends as a timeout, its result is not needed anyway
+                final String result;
+                final long solveStart = System.nanoTime();
+                if (session) {
+                    if (fixedpoint == null) {
+                        fixedpoint = solverContext.mkFixedpoint(timeout, slice, configuration);
+                    }
+                    result = FSEngine.runQuery(fixedpoint, solverContext.queries[index]);
+                } else {
+                    result = FSEngine.runQueryOnce(solverContext.mkFixedpoint(timeout, slice, configuration),
+                            solverContext.queries[index]);
+                }
+                solveTimes[index] = System.nanoTime() - solveStart;
+                current = -1;
+                if (index <= cutoff.get()) {
+                    results[index] = result;
+                    if (tillFirstLeak && result.equals("SATISFIABLE") && !queries.get(index).debugging) {
+                        cancelAfter(index);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.Z3Exception;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Race every query under several solver configurations at once. Each configuration owns a context with a
+ * translated copy of the rules, the first definitive answer (SAT or UNSAT) is kept and the other configurations
+ * still solving the query are interrupted. The queries themselves are handled one after the other.
+ */
+class PortfolioQuerySolver {
+
+    private static final Logger LOGGER = LogManager.getLogger(PortfolioQuerySolver.class);
+    private final List<Z3Query> queries;
+    private final List<SolverConfiguration> configurations;
+    private final List<Member> members;
+    private final boolean tillFirstLeak;
+    private final int timeout;
+    // rules and relations to load for each query, null to load all of them
+    private final List<RuleDependencyGraph.RuleSlice> slices;
+    // queries known to be unsatisfiable, they are not solved
+    private final BitSet skipped;
+    private final String[] results;
+    // name of the configuration that answered each query, null when none gave a definitive answer
+    private final String[] winners;
+    // nanoseconds until the answer of each query, the time of the fastest configuration
+    private final long[] solveTimes;
+    private volatile boolean cancelled = false;
+
+    PortfolioQuerySolver(final List<BoolExpr> rules, final List<FuncDecl> funcs, final List<Z3Query> queries,
+                         final List<SolverConfiguration> configurations, final boolean tillFirstLeak,
+                         final int timeout, final List<RuleDependencyGraph.RuleSlice> slices, final BitSet skipped) {
+        this.queries = queries;
+        this.configurations = configurations;
+        this.tillFirstLeak = tillFirstLeak;
+        this.timeout = timeout;
+        this.slices = slices;
+        this.skipped = skipped;
+        this.results = new String[queries.size()];
+        this.winners = new String[queries.size()];
+        this.solveTimes = new long[queries.size()];
+        this.members = new ArrayList<>();
+        try {
+            for (SolverConfiguration configuration : configurations) {
+                members.add(new Member(configuration, new SolverContext(rules, funcs, queries)));
+            }
+        } catch (Z3Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("PortfolioQuerySolver Failed: translate");
+        }
+    }
+
+    /*
+     * Solve all queries and return the status strings in the original query order.
+     * A null entry means that the query was not solved, because it was skipped or an earlier query was a leak.
+     */
+    String[] solve() {
+        final ExecutorService executor = Executors.newFixedThreadPool(members.size());
+        try {
+            for (int i = 0; i < queries.size() && !cancelled; i++) {
+                if (skipped.get(i)) continue;
+                race(i, executor);
+                if (tillFirstLeak && "SATISFIABLE".equals(results[i]) && !queries.get(i).debugging) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("PortfolioQuerySolver Failed: interrupted");
+        } catch (ExecutionException e) {
+            LOGGER.error("Solving a query failed", e.getCause());
+            throw new RuntimeException("PortfolioQuerySolver Failed: " + e.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+        // no member is running, race waits for all of them
+        for (Member member : members) {
+            member.solverContext.dispose();
+        }
+        return results;
+    }
+
+    String[] getWinners() {
+        return winners;
+    }
+
+    long[] getSolveTimes() {
+        return solveTimes;
+    }
+
+    /*
+     * Number of queries won by each configuration, in the order of the configurations
+     */
+    int[] getWinCounts() {
+        final int[] counts = new int[configurations.size()];
+        for (String winner : winners) {
+            if (winner == null) continue;
+            for (int i = 0; i < configurations.size(); i++) {
+                if (configurations.get(i).getName().equals(winner)) {
+                    counts[i]++;
+                    break;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /*
+     * Stop solving any query, the remaining results stay null
+     */
+    void cancel() {
+        cancelled = true;
+        for (Member member : members) {
+            member.interruptIfRunning();
+        }
+    }
+
+    private void race(final int index, final ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        final long raceStart = System.nanoTime();
+        final CompletionService<Member> completionService = new ExecutorCompletionService<>(executor);
+        for (final Member member : members) {
+            member.prepare();
+            completionService.submit(new Callable<Member>() {
+                @Override
+                public Member call() {
+                    member.solve(index);
+                    return member;
+                }
+            });
+        }
+        Member winner = null;
+        String fallback = null;
+        int pending = members.size();
+        while (pending > 0 && winner == null) {
+            final Member member = completionService.take().get();
+            pending--;
+            if (member.result.equals("SATISFIABLE") || member.result.equals("UNSATISFIABLE")) {
+                winner = member;
+            } else if (fallback == null || member.result.equals(FSEngine.TIMEOUT)) {
+                fallback = member.result;
+            }
+        }
+        solveTimes[index] = System.nanoTime() - raceStart;
+        // the losers are interrupted, and awaited so that no context is busy when the next query starts
+        for (Member member : members) {
+            member.interruptIfRunning();
+        }
+        for (; pending > 0; pending--) {
+            completionService.take().get();
+        }
+        if (winner != null) {
+            results[index] = winner.result;
+            winners[index] = winner.configuration.getName();
+        } else {
+            results[index] = fallback;
+        }
+    }
+
+    private class Member {
+        private final SolverConfiguration configuration;
+        private final SolverContext solverContext;
+        private volatile boolean running = false;
+        private String result;
+
+        Member(final SolverConfiguration configuration, final SolverContext solverContext) {
+            this.configuration = configuration;
+            this.solverContext = solverContext;
+        }
+
+        void prepare() {
+            result = null;
+            running = true;
+        }
+
+        void solve(final int index) {
+            try {
+                final RuleDependencyGraph.RuleSlice slice = slices != null ? slices.get(index) : null;
+                result = FSEngine.runQueryOnce(solverContext.mkFixedpoint(timeout, slice, configuration),
+                        solverContext.queries[index]);
+            } finally {
+                synchronized (this) {
+                    running = false;
+                }
+            }
+        }
+
+        /*
+         * Interrupting an idle context could cancel its next query, hence only a running member is interrupted
+         */
+        synchronized void interruptIfRunning() {
+            if (running) {
+                solverContext.ctx.interrupt();
+            }
+        }
+    }
+}
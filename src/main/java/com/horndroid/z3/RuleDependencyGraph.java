@@ -0,0 +1,291 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.*;
+import com.microsoft.z3.enumerations.Z3_decl_kind;
+import com.microsoft.z3.enumerations.Z3_sort_kind;
+
+import java.util.*;
+
+/*
+ * Dependencies between the relations of the Horn clauses: the head relation of a rule depends on every relation
+ * of its body. A query only depends on the rules whose head is backward reachable from the relations of the
+ * query, the other rules can be left out of the fixedpoint without changing the answer.
+ */
+class RuleDependencyGraph {
+    // relation name and arity -> node
+    private final Map<String, Integer> nodes = new HashMap<>();
+    // node -> index of the relation declaration in the engine, -1 if not declared
+    private final List<Integer> funcOfNode = new ArrayList<>();
+    // node -> rules with that relation as head
+    private final List<List<Integer>> rulesByHead = new ArrayList<>();
+    // rule -> nodes of its body
+    private final List<int[]> ruleBodies = new ArrayList<>();
+    // rule -> head node, and nodes that are conjuncts of its body, i.e. must hold for the rule to apply
+    private final List<Integer> ruleHeads = new ArrayList<>();
+    private final List<int[]> ruleRequired = new ArrayList<>();
+    private int numberOfFuncs = 0;
+    // false once a rule without a relation as head is seen, every query then needs every rule
+    private boolean sliceable = true;
+
+    static class RuleSlice {
+        final BitSet rules;
+        final BitSet funcs;
+
+        RuleSlice(final BitSet rules, final BitSet funcs) {
+            this.rules = rules;
+            this.funcs = funcs;
+        }
+
+        /*
+         * Slice loading the rules and relations of both slices
+         */
+        RuleSlice union(final RuleSlice other) {
+            final BitSet r = (BitSet) rules.clone();
+            r.or(other.rules);
+            final BitSet f = (BitSet) funcs.clone();
+            f.or(other.funcs);
+            return new RuleSlice(r, f);
+        }
+    }
+
+    void addRelation(final FuncDecl funcDecl, final int funcIndex) {
+        funcOfNode.set(node(funcDecl), funcIndex);
+        numberOfFuncs = Math.max(numberOfFuncs, funcIndex + 1);
+    }
+
+    void addRule(final BoolExpr rule, final int ruleIndex) {
+        Expr head = rule;
+        while (head instanceof Quantifier) {
+            head = ((Quantifier) head).getBody();
+        }
+        Expr body = null;
+        if (head.isApp() && head.isImplies()) {
+            final Expr[] args = head.getArgs();
+            body = args[0];
+            head = args[1];
+        }
+        if (!head.isApp() || !isRelation(head.getFuncDecl())) {
+            sliceable = false;
+            ruleBodies.add(new int[0]);
+            ruleHeads.add(-1);
+            ruleRequired.add(new int[0]);
+            return;
+        }
+        final int headNode = node(head.getFuncDecl());
+        rulesByHead.get(headNode).add(ruleIndex);
+        ruleBodies.add(body == null ? new int[0] : relationsOf(body));
+        ruleHeads.add(headNode);
+        ruleRequired.add(body == null ? new int[0] : conjunctsOf(body));
+    }
+
+    /*
+     * Relations that may be derivable: a rule applies once every relation conjunct of its body may be derivable.
+     * Constraints are ignored, so this over-approximates the derivable relations.
+     */
+    BitSet derivableRelations() {
+        final BitSet derivable = new BitSet();
+        if (!sliceable) {
+            derivable.set(0, funcOfNode.size());
+            return derivable;
+        }
+        // number of required relations not yet derivable, per rule
+        final int[] missing = new int[ruleHeads.size()];
+        final List<List<Integer>> rulesRequiring = new ArrayList<>();
+        for (int n = 0; n < funcOfNode.size(); n++) {
+            rulesRequiring.add(new ArrayList<Integer>());
+        }
+        final Deque<Integer> work = new ArrayDeque<>();
+        for (int rule = 0; rule < ruleHeads.size(); rule++) {
+            final int[] required = ruleRequired.get(rule);
+            missing[rule] = required.length;
+            for (int n : required) {
+                rulesRequiring.get(n).add(rule);
+            }
+            if (required.length == 0 && !derivable.get(ruleHeads.get(rule))) {
+                derivable.set(ruleHeads.get(rule));
+                work.push(ruleHeads.get(rule));
+            }
+        }
+        while (!work.isEmpty()) {
+            final int n = work.pop();
+            for (int rule : rulesRequiring.get(n)) {
+                if (--missing[rule] == 0 && !derivable.get(ruleHeads.get(rule))) {
+                    derivable.set(ruleHeads.get(rule));
+                    work.push(ruleHeads.get(rule));
+                }
+            }
+        }
+        return derivable;
+    }
+
+    /*
+     * False if the query can't hold because it needs a relation that is not derivable
+     */
+    boolean mayHold(final BoolExpr query, final BitSet derivable) {
+        return mayHoldExpr(query, derivable);
+    }
+
+    private boolean mayHoldExpr(Expr e, final BitSet derivable) {
+        while (e instanceof Quantifier) {
+            e = ((Quantifier) e).getBody();
+        }
+        if (!e.isApp()) {
+            return true;
+        }
+        if (isRelation(e.getFuncDecl())) {
+            return derivable.get(node(e.getFuncDecl()));
+        }
+        if (e.isAnd()) {
+            for (Expr arg : e.getArgs()) {
+                if (!mayHoldExpr(arg, derivable)) return false;
+            }
+            return true;
+        }
+        if (e.isOr()) {
+            for (Expr arg : e.getArgs()) {
+                if (mayHoldExpr(arg, derivable)) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    int getNumberOfRules() {
+        return ruleBodies.size();
+    }
+
+    /*
+     * Rules and relations needed to answer the query
+     */
+    RuleSlice slice(final BoolExpr query) {
+        final BitSet rules = new BitSet();
+        final BitSet funcs = new BitSet();
+        if (!sliceable) {
+            rules.set(0, ruleBodies.size());
+            funcs.set(0, numberOfFuncs);
+            return new RuleSlice(rules, funcs);
+        }
+        final BitSet visited = new BitSet();
+        final Deque<Integer> work = new ArrayDeque<>();
+        for (int root : relationsOf(query)) {
+            visited.set(root);
+            work.push(root);
+        }
+        while (!work.isEmpty()) {
+            final int n = work.pop();
+            if (funcOfNode.get(n) >= 0) {
+                funcs.set(funcOfNode.get(n));
+            }
+            for (int rule : rulesByHead.get(n)) {
+                rules.set(rule);
+                for (int b : ruleBodies.get(rule)) {
+                    if (!visited.get(b)) {
+                        visited.set(b);
+                        work.push(b);
+                    }
+                }
+            }
+        }
+        return new RuleSlice(rules, funcs);
+    }
+
+    private int node(final FuncDecl funcDecl) {
+        final String key = funcDecl.getName().toString() + '/' + funcDecl.getDomainSize();
+        Integer n = nodes.get(key);
+        if (n == null) {
+            n = funcOfNode.size();
+            nodes.put(key, n);
+            funcOfNode.add(-1);
+            rulesByHead.add(new ArrayList<Integer>());
+        }
+        return n;
+    }
+
+    static boolean isRelation(final FuncDecl funcDecl) {
+        return funcDecl.getDeclKind() == Z3_decl_kind.Z3_OP_UNINTERPRETED && funcDecl.getDomainSize() > 0
+                && funcDecl.getRange().getSortKind() == Z3_sort_kind.Z3_BOOL_SORT;
+    }
+
+    /*
+     * Nodes of the relations that are conjuncts of e
+     */
+    private int[] conjunctsOf(final Expr e) {
+        final Set<Integer> found = new LinkedHashSet<>();
+        final Deque<Expr> stack = new ArrayDeque<>();
+        stack.push(e);
+        while (!stack.isEmpty()) {
+            final Expr x = stack.pop();
+            if (x instanceof Quantifier) {
+                stack.push(((Quantifier) x).getBody());
+            } else if (x.isApp() && isRelation(x.getFuncDecl())) {
+                found.add(node(x.getFuncDecl()));
+            } else if (x.isApp() && x.isAnd()) {
+                for (Expr arg : x.getArgs()) {
+                    stack.push(arg);
+                }
+            }
+        }
+        final int[] result = new int[found.size()];
+        int i = 0;
+        for (int n : found) {
+            result[i++] = n;
+        }
+        return result;
+    }
+
+    /*
+     * Nodes of the relations applied in e, shared sub-terms are visited once
+     */
+    private int[] relationsOf(final Expr e) {
+        final Set<Integer> found = new LinkedHashSet<>();
+        final Set<Integer> seen = new HashSet<>();
+        final Deque<Expr> stack = new ArrayDeque<>();
+        stack.push(e);
+        while (!stack.isEmpty()) {
+            final Expr x = stack.pop();
+            if (!seen.add(x.getId())) continue;
+            if (x instanceof Quantifier) {
+                stack.push(((Quantifier) x).getBody());
+                continue;
+            }
+            if (!x.isApp()) continue;
+            final FuncDecl decl = x.getFuncDecl();
+            if (isRelation(decl)) {
+                found.add(node(decl));
+            }
+            for (Expr arg : x.getArgs()) {
+                stack.push(arg);
+            }
+        }
+        final int[] result = new int[found.size()];
+        int i = 0;
+        for (int n : found) {
+            result[i++] = n;
+        }
+        return result;
+    }
+}
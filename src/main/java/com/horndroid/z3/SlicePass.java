@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+
+import java.util.*;
+
+/*
+ * Keep only the rules some query may need: the head relation is backward reachable from a queried relation
+ * and every relation atom of the body may be derivable. Unlike the per-query rule slicing this shrinks the
+ * clauses every fixedpoint loads, including the session and group fixedpoints.
+ */
+class SlicePass implements ClausePass {
+
+    @Override
+    public String getName() {
+        return "slice";
+    }
+
+    @Override
+    public HornProgram apply(final HornProgram program, final Context ctx) {
+        if (program.hasOpaqueRules()) {
+            return program;
+        }
+        final Set<String> derivable = derivable(program.rules);
+        final Set<String> needed = needed(program.rules, program.queried);
+        final List<HornRule> rules = new ArrayList<>();
+        for (HornRule rule : program.rules) {
+            if (needed.contains(HornRule.key(rule.head.getFuncDecl())) && allDerivable(rule.atoms, derivable)) {
+                rules.add(rule);
+            }
+        }
+        final List<FuncDecl> relations = new ArrayList<>();
+        for (FuncDecl relation : program.relations) {
+            if (needed.contains(HornRule.key(relation))) {
+                relations.add(relation);
+            }
+        }
+        return new HornProgram(rules, relations, program.queried);
+    }
+
+    private static boolean allDerivable(final List<Expr> atoms, final Set<String> derivable) {
+        for (Expr atom : atoms) {
+            if (!derivable.contains(HornRule.key(atom.getFuncDecl()))) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Relations that may be derivable, constraints are ignored
+     */
+    private static Set<String> derivable(final List<HornRule> rules) {
+        final Set<String> derivable = new HashSet<>();
+        final int[] missing = new int[rules.size()];
+        final Map<String, List<Integer>> rulesRequiring = new HashMap<>();
+        final Deque<String> work = new ArrayDeque<>();
+        for (int i = 0; i < rules.size(); i++) {
+            final Set<String> required = new HashSet<>();
+            for (Expr atom : rules.get(i).atoms) {
+                required.add(HornRule.key(atom.getFuncDecl()));
+            }
+            missing[i] = required.size();
+            for (String relation : required) {
+                List<Integer> requiring = rulesRequiring.get(relation);
+                if (requiring == null) {
+                    requiring = new ArrayList<>();
+                    rulesRequiring.put(relation, requiring);
+                }
+                requiring.add(i);
+            }
+            if (required.isEmpty()) {
+                final String head = HornRule.key(rules.get(i).head.getFuncDecl());
+                if (derivable.add(head)) work.push(head);
+            }
+        }
+        while (!work.isEmpty()) {
+            final List<Integer> requiring = rulesRequiring.get(work.pop());
+            if (requiring == null) continue;
+            for (int i : requiring) {
+                if (--missing[i] == 0) {
+                    final String head = HornRule.key(rules.get(i).head.getFuncDecl());
+                    if (derivable.add(head)) work.push(head);
+                }
+            }
+        }
+        return derivable;
+    }
+
+    /*
+     * Relations backward reachable from the queried relations through every relation of the rule bodies
+     */
+    private static Set<String> needed(final List<HornRule> rules, final Set<String> queried) {
+        final Map<String, List<HornRule>> rulesByHead = new HashMap<>();
+        for (HornRule rule : rules) {
+            final String head = HornRule.key(rule.head.getFuncDecl());
+            List<HornRule> defining = rulesByHead.get(head);
+            if (defining == null) {
+                defining = new ArrayList<>();
+                rulesByHead.put(head, defining);
+            }
+            defining.add(rule);
+        }
+        final Set<String> needed = new HashSet<>(queried);
+        final Deque<String> work = new ArrayDeque<>(queried);
+        while (!work.isEmpty()) {
+            final List<HornRule> defining = rulesByHead.get(work.pop());
+            if (defining == null) continue;
+            for (HornRule rule : defining) {
+                final Set<String> body = new HashSet<>();
+                for (Expr atom : rule.atoms) {
+                    body.add(HornRule.key(atom.getFuncDecl()));
+                }
+                for (Expr constraint : rule.constraints) {
+                    HornRule.collectRelations(constraint, body);
+                }
+                for (String relation : body) {
+                    if (needed.add(relation)) work.push(relation);
+                }
+            }
+        }
+        return needed;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Params;
+import com.microsoft.z3.Symbol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/*
+ * Named solver profile: the fixedpoint parameters a query is solved with, e.g. "engine=duality" or
+ * "engine=pdr,pdr.flexible_trace=true", and the representation of the relations, e.g.
+ * "representation=interval_relation+bound_relation" ("none" for the default representation), and the clause
+ * passes run before solving, e.g. "passes=dedupe+slice+inline+fold" ("none" for no pass).
+ * Values true/false are set as booleans, integers as unsigned integers and anything else as a symbol.
+ */
+public class SolverConfiguration {
+    public static final String REPRESENTATION = "representation";
+    public static final String NO_REPRESENTATION = "none";
+    public static final String PASSES = "passes";
+    private static final String[] ENGINES = {"pdr", "duality"};
+    private static final String[] REPRESENTATIONS = {"interval_relation+bound_relation", "interval_relation",
+            NO_REPRESENTATION};
+    /*
+     * Profile HornDroid always used: PDR, answers printed and interval and bound relations
+     */
+    public static final SolverConfiguration DEFAULT;
+
+    static {
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("engine", "pdr");
+        parameters.put("print_answer", "true");
+        parameters.put(REPRESENTATION, "interval_relation+bound_relation");
+        DEFAULT = new SolverConfiguration("default", parameters);
+    }
+
+    private final String name;
+    private final Map<String, String> parameters;
+
+    public SolverConfiguration(final String name, final Map<String, String> parameters) {
+        this.name = name;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /*
+     * This profile with the parameters of other added or replaced, named after other
+     */
+    public SolverConfiguration with(final SolverConfiguration other) {
+        final Map<String, String> merged = new LinkedHashMap<>(parameters);
+        merged.putAll(other.parameters);
+        return new SolverConfiguration(other.name, merged);
+    }
+
+    /*
+     * Parse "key=value,key=value", the specification is the name of the configuration
+     */
+    public static SolverConfiguration parse(final String spec) {
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        for (String assignment : spec.split(",")) {
+            if (assignment.trim().isEmpty()) continue;
+            final int eq = assignment.indexOf('=');
+            if (eq <= 0) {
+                throw new RuntimeException("SolverConfiguration Failed: expected key=value in " + spec);
+            }
+            parameters.put(assignment.substring(0, eq).trim(), assignment.substring(eq + 1).trim());
+        }
+        return new SolverConfiguration(spec.trim(), parameters);
+    }
+
+    /*
+     * Parse configurations separated by ';'
+     */
+    public static List<SolverConfiguration> parseList(final String specs) {
+        final List<SolverConfiguration> configurations = new ArrayList<>();
+        for (String spec : specs.split(";")) {
+            if (!spec.trim().isEmpty()) {
+                configurations.add(parse(spec));
+            }
+        }
+        return configurations;
+    }
+
+    /*
+     * The default profile overridden by a profile file (key=value lines) or by an inline "key=value,..." spec.
+     * An empty argument gives the default profile.
+     */
+    public static SolverConfiguration load(final String fileOrSpec) {
+        if (fileOrSpec == null || fileOrSpec.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        final File file = new File(fileOrSpec);
+        if (!file.isFile()) {
+            return DEFAULT.with(parse(fileOrSpec));
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException("SolverConfiguration Failed: can't read " + file + ": " + e.getMessage());
+        }
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            parameters.put(key, properties.getProperty(key).trim());
+        }
+        String name = file.getName();
+        if (name.lastIndexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        return DEFAULT.with(new SolverConfiguration(name, parameters));
+    }
+
+    /*
+     * Write the profile as key=value lines readable by load, the comment lines are written first
+     */
+    public void store(final File file, final List<String> comments) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (String comment : comments) {
+                writer.write("# " + comment + "\n");
+            }
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                writer.write(parameter.getKey() + "=" + parameter.getValue() + "\n");
+            }
+        }
+    }
+
+    /*
+     * Candidates tried by the auto-tuner: every engine with every relation representation
+     */
+    public static List<SolverConfiguration> tuningGrid() {
+        final List<SolverConfiguration> grid = new ArrayList<>();
+        for (String engine : ENGINES) {
+            for (String representation : REPRESENTATIONS) {
+                grid.add(parse("engine=" + engine + "," + REPRESENTATION + "=" + representation));
+            }
+        }
+        return grid;
+    }
+
+    void applyTo(final Context ctx, final Params params) {
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            final String key = parameter.getKey();
+            final String value = parameter.getValue();
+            if (key.equals(REPRESENTATION) || key.equals(PASSES)) {
+                continue;
+            }
+            if (value.equals("true") || value.equals("false")) {
+                params.add(key, Boolean.parseBoolean(value));
+            } else if (value.matches("\\d+")) {
+                params.add(key, Integer.parseInt(value));
+            } else {
+                params.add(key, ctx.mkSymbol(value));
+            }
+        }
+    }
+
+    /*
+     * Predicate representation of every relation, null to keep the default representation
+     */
+    Symbol[] representation(final Context ctx) {
+        final String value = parameters.get(REPRESENTATION);
+        if (value == null || value.isEmpty() || value.equals(NO_REPRESENTATION)) {
+            return null;
+        }
+        final String[] kinds = value.split("\\+");
+        final Symbol[] symbols = new Symbol[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            symbols[i] = ctx.mkSymbol(kinds[i].trim());
+        }
+        return symbols;
+    }
+
+    /*
+     * Clause passes of the profile, empty if none
+     */
+    String passes() {
+        final String value = parameters.get(PASSES);
+        return value == null ? "" : value.trim();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.*;
+
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * A Z3 context of its own holding a translated copy of the rules, relations and queries of an engine, so that
+ * queries can be solved on another thread. The translation must be done on the thread owning the engine context.
+ */
+class SolverContext {
+    final Context ctx;
+    final BoolExpr[] rules;
+    final FuncDecl[] funcs;
+    final BoolExpr[] queries;
+
+    SolverContext(final List<BoolExpr> rules, final List<FuncDecl> funcs, final List<Z3Query> queries) {
+        this.ctx = new Context(new HashMap<String, String>());
+        this.rules = new BoolExpr[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            this.rules[i] = (BoolExpr) rules.get(i).translate(ctx);
+        }
+        this.funcs = new FuncDecl[funcs.size()];
+        for (int i = 0; i < funcs.size(); i++) {
+            this.funcs[i] = (FuncDecl) funcs.get(i).translate(ctx);
+        }
+        this.queries = new BoolExpr[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            this.queries[i] = (BoolExpr) queries.get(i).getQuery().translate(ctx);
+        }
+    }
+
+    /*
+     * Fixedpoint loaded with the rules and relations of the slice, or all of them when slice is null
+     */
+    Fixedpoint mkFixedpoint(final int timeout, final RuleDependencyGraph.RuleSlice slice,
+                            final SolverConfiguration configuration) {
+        final Fixedpoint fixedpoint = NativeMemory.mkFixedpoint(ctx);
+        try {
+            final Params params = ctx.mkParams();
+            if (timeout > 0) {
+                params.add("timeout", timeout);
+            }
+            configuration.applyTo(ctx, params);
+            fixedpoint.setParameters(params);
+            params.dispose();
+            for (int i = 0; i < rules.length; i++) {
+                if (slice == null || slice.rules.get(i)) {
+                    fixedpoint.addRule(rules[i], null);
+                }
+            }
+            final Symbol[] symbols = configuration.representation(ctx);
+            for (int i = 0; i < funcs.length; i++) {
+                if (slice == null || slice.funcs.get(i)) {
+                    fixedpoint.registerRelation(funcs[i]);
+                    if (symbols != null) {
+                        fixedpoint.setPredicateRepresentation(funcs[i], symbols);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            NativeMemory.dispose(fixedpoint);
+            throw e;
+        }
+        return fixedpoint;
+    }
+
+    /*
+     * Release the translated copies and the context, must not be called while a query is running
+     */
+    void dispose() {
+        for (BoolExpr rule : rules) {
+            rule.dispose();
+        }
+        for (FuncDecl func : funcs) {
+            func.dispose();
+        }
+        for (BoolExpr query : queries) {
+            query.dispose();
+        }
+        NativeMemory.dispose(ctx);
+    }
+}